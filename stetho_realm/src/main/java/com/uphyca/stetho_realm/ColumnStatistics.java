@@ -0,0 +1,283 @@
+package com.uphyca.stetho_realm;
+
+import com.uphyca.stetho_realm.Database.RowFetcher;
+import com.uphyca.stetho_realm.Database.RowWrapper;
+import com.uphyca.stetho_realm.Database.StethoRealmFieldType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.realm.internal.Table;
+
+/**
+ * テーブルの1カラム分の統計情報です。
+ * <p>
+ * Realm のネイティブ集計関数(min/max/average/isNull/distinct view)が使えるものはそれを使い、
+ * 残りはテーブル全体を1回だけ走査して求めます。異なり数は検索インデックスがあれば正確な値、
+ * なければ {@link HyperLogLog} による推定値です。どちらも SQL の {@code COUNT(DISTINCT)} と同じく null は数えません。
+ * <p>
+ * 文字列とバイナリの average は平均長、DATE の average はエポックからのミリ秒、LIST の min/max/average はリンク数です。
+ * OLD_DATE はネイティブの集計も null の検索もできないので、走査せずに統計なし(null の数も不明)とします。
+ */
+final class ColumnStatistics {
+
+    private static final int HLL_PRECISION = 12;
+
+    final String name;
+    final StethoRealmFieldType type;
+    Object min;
+    Object max;
+    Double average;
+    /**
+     * null の数。求められない型では {@code null}。
+     */
+    Long nullCount = 0L;
+    long distinctCount;
+    boolean exactDistinctCount;
+
+    private ColumnStatistics(String name, StethoRealmFieldType type) {
+        this.name = name;
+        this.type = type;
+    }
+
+    static List<ColumnStatistics> collect(Table table) {
+        final long numColumns = table.getColumnCount();
+        final long tableSize = table.size();
+
+        final List<ColumnStatistics> statistics = new ArrayList<>();
+        final List<Accumulator> scanning = new ArrayList<>();
+        for (long column = 0; column < numColumns; column++) {
+            final ColumnStatistics stats = new ColumnStatistics(
+                    table.getColumnName(column),
+                    StethoRealmFieldType.from(table.getColumnType(column)));
+            statistics.add(stats);
+            if (tableSize == 0) {
+                stats.exactDistinctCount = true;
+                continue;
+            }
+            final Accumulator accumulator = collectNative(table, column, stats);
+            if (accumulator != null) {
+                scanning.add(accumulator);
+            }
+        }
+
+        if (!scanning.isEmpty()) {
+            final RowFetcher rowFetcher = RowFetcher.getInstance();
+            for (long index = 0; index < tableSize; index++) {
+                final RowWrapper rowData = RowWrapper.wrap(rowFetcher.getRow(table, index));
+                for (Accumulator accumulator : scanning) {
+                    accumulator.accept(rowData);
+                }
+            }
+            for (Accumulator accumulator : scanning) {
+                accumulator.finish();
+            }
+        }
+        return statistics;
+    }
+
+    /**
+     * ネイティブの集計で求められる値を埋めます。
+     *
+     * @return 残りの値を求めるために走査が必要な場合はその {@link Accumulator}。不要なら {@code null}。
+     */
+    private static Accumulator collectNative(Table table, long column, ColumnStatistics stats) {
+        final boolean nativeNullCount;
+        boolean needsMinMax = false;
+        boolean needsAverage = false;
+        switch (stats.type) {
+            case INTEGER:
+                stats.min = table.minimumLong(column);
+                stats.max = table.maximumLong(column);
+                stats.average = table.averageLong(column);
+                nativeNullCount = true;
+                break;
+            case FLOAT:
+                stats.min = table.minimumFloat(column);
+                stats.max = table.maximumFloat(column);
+                stats.average = table.averageFloat(column);
+                nativeNullCount = true;
+                break;
+            case DOUBLE:
+                stats.min = table.minimumDouble(column);
+                stats.max = table.maximumDouble(column);
+                stats.average = table.averageDouble(column);
+                nativeNullCount = true;
+                break;
+            case DATE:
+                stats.min = table.minimumDate(column);
+                stats.max = table.maximumDate(column);
+                // 日時の平均はネイティブで求められない
+                needsAverage = true;
+                nativeNullCount = true;
+                break;
+            case BOOLEAN:
+            case STRING:
+            case BINARY:
+                needsMinMax = true;
+                nativeNullCount = true;
+                break;
+            case LIST:
+                // LIST は null にならない
+                needsMinMax = true;
+                nativeNullCount = false;
+                break;
+            case OBJECT:
+                stats.nullCount = table.where().isNull(new long[]{column}).count();
+                nativeNullCount = false;
+                break;
+            case OLD_DATE:
+                stats.nullCount = null;
+                return null;
+            default:
+                // 集計できない型
+                return null;
+        }
+
+        if (nativeNullCount && table.isColumnNullable(column)) {
+            stats.nullCount = table.where().isNull(new long[]{column}).count();
+        }
+
+        boolean needsDistinct = stats.type != StethoRealmFieldType.LIST;
+        if (needsDistinct && table.hasSearchIndex(column)) {
+            // distinct view は null も1つの値として含む
+            final boolean hasNull = stats.nullCount != null && stats.nullCount > 0;
+            stats.distinctCount = table.getDistinctView(column).size() - (hasNull ? 1 : 0);
+            stats.exactDistinctCount = true;
+            needsDistinct = false;
+        }
+
+        if (!needsMinMax && !needsAverage && !needsDistinct) {
+            return null;
+        }
+        return new Accumulator(column, stats, needsDistinct);
+    }
+
+    private static final class Accumulator {
+        private final long column;
+        private final ColumnStatistics stats;
+        private final HyperLogLog distinct;
+        private long count;
+        private double sum;
+        private double mean;
+        private boolean sawTrue;
+        private boolean sawFalse;
+
+        Accumulator(long column, ColumnStatistics stats, boolean countDistinct) {
+            this.column = column;
+            this.stats = stats;
+            // BOOLEAN は高々2種類なので正確に数える
+            this.distinct = (countDistinct && stats.type != StethoRealmFieldType.BOOLEAN)
+                    ? new HyperLogLog(HLL_PRECISION)
+                    : null;
+        }
+
+        void accept(RowWrapper rowData) {
+            switch (stats.type) {
+                case INTEGER:
+                    if (!rowData.isNull(column)) {
+                        distinct.offer(rowData.getLong(column));
+                    }
+                    break;
+                case FLOAT:
+                    if (!rowData.isNull(column)) {
+                        distinct.offer(Float.floatToIntBits(rowData.getFloat(column)));
+                    }
+                    break;
+                case DOUBLE:
+                    if (!rowData.isNull(column)) {
+                        distinct.offer(Double.doubleToLongBits(rowData.getDouble(column)));
+                    }
+                    break;
+                case DATE:
+                    if (!rowData.isNull(column)) {
+                        final long time = rowData.getDate(column).getTime();
+                        // エポックからのミリ秒の合計は double の精度を超えるので、平均を順に更新する
+                        count++;
+                        mean += (time - mean) / count;
+                        if (distinct != null) {
+                            distinct.offer(time);
+                        }
+                    }
+                    break;
+                case BOOLEAN:
+                    if (!rowData.isNull(column)) {
+                        if (rowData.getBoolean(column)) {
+                            sawTrue = true;
+                        } else {
+                            sawFalse = true;
+                        }
+                    }
+                    break;
+                case STRING:
+                    if (!rowData.isNull(column)) {
+                        final String value = rowData.getString(column);
+                        updateMinMax(value);
+                        count++;
+                        sum += value.length();
+                        if (distinct != null) {
+                            distinct.offer(value);
+                        }
+                    }
+                    break;
+                case BINARY:
+                    if (!rowData.isNull(column)) {
+                        final byte[] value = rowData.getBinaryByteArray(column);
+                        count++;
+                        sum += value.length;
+                        if (distinct != null) {
+                            distinct.offer(value);
+                        }
+                    }
+                    break;
+                case OBJECT:
+                    if (!rowData.isNullLink(column)) {
+                        distinct.offer(rowData.getLink(column));
+                    }
+                    break;
+                case LIST:
+                    final long size = rowData.getLinkList(column).size();
+                    updateMinMax(size);
+                    count++;
+                    sum += size;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T extends Comparable<T>> void updateMinMax(T value) {
+            if (stats.min == null || value.compareTo((T) stats.min) < 0) {
+                stats.min = value;
+            }
+            if (stats.max == null || value.compareTo((T) stats.max) > 0) {
+                stats.max = value;
+            }
+        }
+
+        void finish() {
+            if (stats.type == StethoRealmFieldType.BOOLEAN) {
+                if (sawTrue || sawFalse) {
+                    stats.min = !sawFalse;
+                    stats.max = sawTrue;
+                }
+                if (!stats.exactDistinctCount) {
+                    stats.distinctCount = (sawTrue ? 1 : 0) + (sawFalse ? 1 : 0);
+                    stats.exactDistinctCount = true;
+                }
+            }
+            if (stats.type == StethoRealmFieldType.DATE) {
+                if (count != 0) {
+                    stats.average = mean;
+                }
+            } else if (count != 0) {
+                stats.average = sum / count;
+            }
+            if (distinct != null) {
+                stats.distinctCount = distinct.cardinality();
+                stats.exactDistinctCount = false;
+            }
+        }
+    }
+}
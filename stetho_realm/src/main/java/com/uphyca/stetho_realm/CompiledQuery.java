@@ -0,0 +1,264 @@
+package com.uphyca.stetho_realm;
+
+import android.database.sqlite.SQLiteException;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import io.realm.internal.SharedRealm;
+import io.realm.internal.Table;
+
+/**
+ * {@link QueryShape} を解析し、テーブルとカラムを解決した結果です。
+ * <p>
+ * 解決した {@link Table} とカラムの型({@link TableColumns})も保持します。{@link Table} は解析に使った
+ * SharedRealm のものなので、解析済みクエリは SharedRealm を保持している {@link RealmWorker} ごとに
+ * スキーマバージョンをキーに含めてキャッシュし、SharedRealm を閉じるときに捨てます。
+ */
+final class CompiledQuery {
+
+    enum Kind {
+        SELECT,
+        SAMPLE,
+        WHERE,
+        JOIN,
+        BACKLINK_JOIN,
+        DISTINCT,
+        GROUP_BY,
+        /**
+         * 対応していないクエリ。
+         */
+        UNSUPPORTED
+    }
+
+    /**
+     * {@code WHERE column = ?} の行の探し方。
+     */
+    enum Lookup {
+        /**
+         * {@code rowid} で行インデックスを指定する。
+         */
+        ROW_INDEX,
+        PRIMARY_KEY,
+        /**
+         * ネイティブのクエリ。検索インデックスがあればそれが使われます。
+         */
+        QUERY
+    }
+
+    private static final Pattern SELECT_PATTERN = Pattern.compile(
+            "SELECT rowid, \\* FROM \"([^\"]+)\"( LIMIT \\?)?( OFFSET \\?)?",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern SAMPLE_PATTERN = Pattern.compile(
+            "SELECT rowid, \\* FROM \"([^\"]+)\" TABLESAMPLE (?:(UNIFORM|STRIDE) ?)?\\( ?\\?(?: ROWS)? ?\\)",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern WHERE_PATTERN = Pattern.compile(
+            "SELECT rowid, \\* FROM \"([^\"]+)\" WHERE \"?([^\" =]+)\"? ?= ?\\?",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern JOIN_PATTERN = Pattern.compile(
+            "SELECT rowid, \\* FROM \"([^\"]+)\" (?:LEFT )?JOIN \"([^\"]+)\"( LIMIT \\?)?( OFFSET \\?)?",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern BACKLINK_JOIN_PATTERN = Pattern.compile(
+            "SELECT rowid, \\* FROM \"([^\"]+)\" (?:LEFT )?JOIN BACKLINK \"([^\"]+)\"\\.\"([^\"]+)\"( LIMIT \\?)?( OFFSET \\?)?",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern DISTINCT_PATTERN = Pattern.compile(
+            "SELECT DISTINCT \"?([^\" ,]+)\"? FROM \"([^\"]+)\"",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern GROUP_BY_PATTERN = Pattern.compile(
+            "SELECT \"?([^\" ,]+)\"? ?, ?COUNT\\( ?\\* ?\\) FROM \"([^\"]+)\" GROUP BY \"?([^\" ,]+)\"?",
+            Pattern.CASE_INSENSITIVE);
+
+    private static final CompiledQuery UNSUPPORTED = new CompiledQuery(Kind.UNSUPPORTED, null);
+
+    final Kind kind;
+    final String tableName;
+
+    /**
+     * {@code tableName} のテーブル。UNSUPPORTED では {@code null}。
+     */
+    Table table;
+    TableColumns columns;
+    /**
+     * JOIN ではリンク先のテーブル、BACKLINK_JOIN ではリンクのカラムを持つテーブル。
+     */
+    Table joinedTable;
+    TableColumns joinedColumns;
+
+    /**
+     * WHERE, DISTINCT, GROUP BY の対象のカラム、JOIN のリンクのカラム。
+     */
+    String columnName;
+    long columnIndex = -1;
+    Database.StethoRealmFieldType columnType;
+    Lookup lookup;
+
+    /**
+     * SAMPLE なら {@code true} で等間隔、{@code false} で一様ランダム。
+     */
+    boolean stride;
+
+    /**
+     * BACKLINK_JOIN でリンクのカラムを持つテーブル。
+     */
+    String linkTableName;
+
+    /**
+     * SELECT, JOIN の {@code LIMIT ?}, {@code OFFSET ?} が何番目のパラメータか。ない場合は {@code -1}。
+     * JOIN では結合する前の行を数えます。
+     */
+    int limitParameter = -1;
+    int offsetParameter = -1;
+
+    private CompiledQuery(Kind kind, String tableName) {
+        this.kind = kind;
+        this.tableName = tableName;
+    }
+
+    private CompiledQuery(Kind kind, String tableName, Table table) {
+        this(kind, tableName);
+        this.table = table;
+        this.columns = TableColumns.of(table);
+    }
+
+    /**
+     * @throws SQLiteException テーブルやカラムが存在しない場合。
+     */
+    static CompiledQuery compile(SharedRealm sharedRealm, String shape) {
+        Matcher matcher = SELECT_PATTERN.matcher(shape);
+        if (matcher.matches()) {
+            final CompiledQuery compiled = new CompiledQuery(Kind.SELECT, matcher.group(1), getExistingTable(sharedRealm, matcher.group(1)));
+            compiled.setPaging(matcher.group(2) != null, matcher.group(3) != null);
+            return compiled;
+        }
+
+        matcher = SAMPLE_PATTERN.matcher(shape);
+        if (matcher.matches()) {
+            final CompiledQuery compiled = new CompiledQuery(Kind.SAMPLE, matcher.group(1), getExistingTable(sharedRealm, matcher.group(1)));
+            compiled.stride = "STRIDE".equalsIgnoreCase(matcher.group(2));
+            return compiled;
+        }
+
+        matcher = WHERE_PATTERN.matcher(shape);
+        if (matcher.matches()) {
+            final Table table = getExistingTable(sharedRealm, matcher.group(1));
+            final CompiledQuery compiled = new CompiledQuery(Kind.WHERE, matcher.group(1), table);
+            compiled.columnName = matcher.group(2);
+            compiled.columnIndex = table.getColumnIndex(compiled.columnName);
+            if (compiled.columnIndex < 0 && "rowid".equalsIgnoreCase(compiled.columnName)) {
+                compiled.lookup = Lookup.ROW_INDEX;
+                compiled.columnType = Database.StethoRealmFieldType.INTEGER;
+                return compiled;
+            }
+            if (compiled.columnIndex < 0) {
+                throw new SQLiteException("no such column: " + compiled.columnName);
+            }
+            compiled.columnType = Database.StethoRealmFieldType.from(table.getColumnType(compiled.columnIndex));
+            compiled.lookup = table.hasPrimaryKey() && table.getPrimaryKey() == compiled.columnIndex
+                    ? Lookup.PRIMARY_KEY
+                    : Lookup.QUERY;
+            return compiled;
+        }
+
+        matcher = JOIN_PATTERN.matcher(shape);
+        if (matcher.matches()) {
+            final Table table = getExistingTable(sharedRealm, matcher.group(1));
+            final CompiledQuery compiled = new CompiledQuery(Kind.JOIN, matcher.group(1), table);
+            compiled.columnName = matcher.group(2);
+            compiled.columnIndex = getLinkColumnIndex(table, compiled.columnName);
+            compiled.setJoinedTable(table.getLinkTarget(compiled.columnIndex));
+            compiled.setPaging(matcher.group(3) != null, matcher.group(4) != null);
+            return compiled;
+        }
+
+        matcher = BACKLINK_JOIN_PATTERN.matcher(shape);
+        if (matcher.matches()) {
+            final Table table = getExistingTable(sharedRealm, matcher.group(1));
+            final Table linkTable = getExistingTable(sharedRealm, matcher.group(2));
+            final CompiledQuery compiled = new CompiledQuery(Kind.BACKLINK_JOIN, matcher.group(1), table);
+            compiled.linkTableName = matcher.group(2);
+            compiled.setJoinedTable(linkTable);
+            compiled.columnName = matcher.group(3);
+            compiled.columnIndex = getLinkColumnIndex(linkTable, compiled.columnName);
+            if (!linkTable.getLinkTarget(compiled.columnIndex).getName().equals(table.getName())) {
+                throw new SQLiteException(matcher.group(2) + "." + matcher.group(3)
+                        + " does not link to " + table.getName());
+            }
+            compiled.setPaging(matcher.group(4) != null, matcher.group(5) != null);
+            return compiled;
+        }
+
+        matcher = DISTINCT_PATTERN.matcher(shape);
+        if (matcher.matches()) {
+            return compileGroupBy(sharedRealm, Kind.DISTINCT, matcher.group(2), matcher.group(1));
+        }
+
+        matcher = GROUP_BY_PATTERN.matcher(shape);
+        if (matcher.matches()) {
+            if (!matcher.group(1).equals(matcher.group(3))) {
+                throw new SQLiteException("selected column must be the GROUP BY column: " + matcher.group(1));
+            }
+            return compileGroupBy(sharedRealm, Kind.GROUP_BY, matcher.group(2), matcher.group(1));
+        }
+
+        return UNSUPPORTED;
+    }
+
+    private static CompiledQuery compileGroupBy(SharedRealm sharedRealm, Kind kind, String tableName, String columnName) {
+        final Table table = getExistingTable(sharedRealm, tableName);
+        final CompiledQuery compiled = new CompiledQuery(kind, tableName, table);
+        compiled.columnName = columnName;
+        compiled.columnIndex = table.getColumnIndex(columnName);
+        if (compiled.columnIndex < 0) {
+            throw new SQLiteException("no such column: " + columnName);
+        }
+        return compiled;
+    }
+
+    private void setJoinedTable(Table joinedTable) {
+        this.joinedTable = joinedTable;
+        this.joinedColumns = TableColumns.of(joinedTable);
+    }
+
+    private void setPaging(boolean hasLimit, boolean hasOffset) {
+        int parameter = 0;
+        if (hasLimit) {
+            limitParameter = parameter++;
+        }
+        if (hasOffset) {
+            offsetParameter = parameter;
+        }
+    }
+
+    boolean isPaged() {
+        return limitParameter >= 0 || offsetParameter >= 0;
+    }
+
+    /**
+     * 解決したテーブルがまだ使えるかどうかを返します。
+     * <p>
+     * カラムの構成はスキーマバージョンが同じ間は変わらないので確かめません。テーブルが削除された場合などに
+     * {@link Table} が使えなくなっていないかだけを確かめます。
+     */
+    boolean isAttached() {
+        return (table == null || table.isValid()) && (joinedTable == null || joinedTable.isValid());
+    }
+
+    static Table getExistingTable(SharedRealm sharedRealm, String tableName) {
+        if (!sharedRealm.hasTable(tableName)) {
+            throw new SQLiteException("no such table: " + tableName);
+        }
+        return sharedRealm.getTable(tableName);
+    }
+
+    private static long getLinkColumnIndex(Table table, String columnName) {
+        final long columnIndex = table.getColumnIndex(columnName);
+        if (columnIndex < 0) {
+            throw new SQLiteException("no such column: " + columnName);
+        }
+        final Database.StethoRealmFieldType type = Database.StethoRealmFieldType.from(table.getColumnType(columnIndex));
+        if (type != Database.StethoRealmFieldType.OBJECT && type != Database.StethoRealmFieldType.LIST) {
+            throw new SQLiteException("not a link column: " + columnName);
+        }
+        return columnIndex;
+    }
+}
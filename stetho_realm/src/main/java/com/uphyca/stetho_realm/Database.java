@@ -21,14 +21,16 @@ import com.facebook.stetho.json.annotation.JsonProperty;
 
 import org.json.JSONObject;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import javax.annotation.Nullable;
+
 import io.realm.internal.LinkView;
 import io.realm.internal.Row;
 import io.realm.internal.Table;
@@ -37,17 +39,17 @@ import io.realm.internal.Table;
 @SuppressWarnings("WeakerAccess")
 public class Database implements ChromeDevtoolsDomain {
 
-    private static final String NULL = "[null]";
 
     private final RealmPeerManager realmPeerManager;
     private final ObjectMapper objectMapper;
     private final boolean withMetaTables;
     private final long limit;
+    private final long byteLimit;
+    private final ValueFormatter formatter;
+    private final RowMaterializer materializer;
     private final boolean ascendingOrder;
 
-    private DateFormat dateTimeFormatter;
-
-    private enum StethoRealmFieldType {
+    enum StethoRealmFieldType {
         INTEGER(0),
         BOOLEAN(1),
         STRING(2),
@@ -75,6 +77,50 @@ public class Database implements ChromeDevtoolsDomain {
         public int getValue() {
             return nativeValue;
         }
+
+        /**
+         * io.realm.RealmFieldType を対応する値に変換します。
+         */
+        static StethoRealmFieldType from(Enum<?> columnType) {
+            final String name = columnType.name();
+            if (name.equals("INTEGER")) {
+                return INTEGER;
+            }
+            if (name.equals("BOOLEAN")) {
+                return BOOLEAN;
+            }
+            if (name.equals("STRING")) {
+                return STRING;
+            }
+            if (name.equals("BINARY")) {
+                return BINARY;
+            }
+            if (name.equals("UNSUPPORTED_TABLE")) {
+                return UNSUPPORTED_TABLE;
+            }
+            if (name.equals("UNSUPPORTED_MIXED")) {
+                return UNSUPPORTED_MIXED;
+            }
+            if (name.equals("UNSUPPORTED_DATE")) {
+                return OLD_DATE;
+            }
+            if (name.equals("DATE")) {
+                return DATE;
+            }
+            if (name.equals("FLOAT")) {
+                return FLOAT;
+            }
+            if (name.equals("DOUBLE")) {
+                return DOUBLE;
+            }
+            if (name.equals("OBJECT")) {
+                return OBJECT;
+            }
+            if (name.equals("LIST")) {
+                return LIST;
+            }
+            return UNKNOWN;
+        }
     }
 
     /**
@@ -84,6 +130,10 @@ public class Database implements ChromeDevtoolsDomain {
      * @param filesProvider {@link RealmFilesProvider} インスタンス。
      * @param withMetaTables テーブル一覧にmeta テーブルを含めるかどうか。
      * @param limit 返却するデータの最大行数
+     * @param byteLimit 返却するデータの最大バイト数(目安)。超える場合は行数を減らして返します。
+     * @param stringPrefixLength 文字列を切り詰めずに返す最大文字数(バイナリはバイト数)。超える部分は省略し、元の長さを付記します。
+     * @param compactValueEncoding {@code true}なら日時をエポックからのミリ秒、null を JSON の null で返します。
+     * @param iso8601Dates {@code true}なら日時を ISO-8601 形式(UTC)で返します。{@code false}なら端末のロケールの形式で返します。
      * @param ascendingOrder {@code true}ならデータを id列の昇順に、{@code false}なら降順に返します。
      * @param defaultEncryptionKey データベースの復号に使用するキー。
      * {@code null} の場合は暗号化されていないものとして扱います。
@@ -95,13 +145,20 @@ public class Database implements ChromeDevtoolsDomain {
             RealmFilesProvider filesProvider,
             boolean withMetaTables,
             long limit,
+            long byteLimit,
+            int stringPrefixLength,
+            boolean compactValueEncoding,
+            boolean iso8601Dates,
             boolean ascendingOrder,
             byte[] defaultEncryptionKey,
             Map<String, byte[]> encryptionKeys) {
-        this.realmPeerManager = new RealmPeerManager(packageName, filesProvider, defaultEncryptionKey, encryptionKeys);
+        this.realmPeerManager = new RealmPeerManager(packageName, filesProvider, ascendingOrder, defaultEncryptionKey, encryptionKeys);
         this.objectMapper = new ObjectMapper();
         this.withMetaTables = withMetaTables;
         this.limit = limit;
+        this.byteLimit = byteLimit;
+        this.formatter = new ValueFormatter(stringPrefixLength, compactValueEncoding, iso8601Dates);
+        this.materializer = new RowMaterializer(formatter, byteLimit, ascendingOrder);
         this.ascendingOrder = ascendingOrder;
     }
 
@@ -131,8 +188,34 @@ public class Database implements ChromeDevtoolsDomain {
     public JsonRpcResult executeSQL(JsonRpcPeer peer, JSONObject params) {
         ExecuteSQLRequest request = this.objectMapper.convertValue(params, ExecuteSQLRequest.class);
 
+        final String explainedQuery = QueryPlan.unwrapExplain(request.query);
+        if (explainedQuery == null) {
+            return executeSQL(request.databaseId, request.query, peer, null);
+        }
+
+        final QueryPlan plan = new QueryPlan(explainedQuery);
+        final ExecuteSQLResponse result = executeSQL(request.databaseId, explainedQuery, null, plan);
+        if (result.sqlError != null) {
+            return result;
+        }
+        // 結果の行数は limit と byteLimit で制限されているので、返さずにシリアライズだけする
+        final long serializeStart = System.nanoTime();
+        final String json = objectMapper.convertValue(result, JSONObject.class).toString();
+        plan.serializeNanos = System.nanoTime() - serializeStart;
+        plan.serializedBytes = RowMaterializer.utf8Length(json);
+
+        ExecuteSQLResponse response = new ExecuteSQLResponse();
+        response.columnNames = plan.getColumnNames();
+        response.values = plan.toValues();
+        return response;
+    }
+
+    private ExecuteSQLResponse executeSQL(String databaseId,
+            String query,
+            @Nullable JsonRpcPeer peer,
+            @Nullable final QueryPlan plan) {
         try {
-            return realmPeerManager.executeSQL(request.databaseId, request.query,
+            return realmPeerManager.executeSQL(databaseId, query, peer, plan,
                     new RealmPeerManager.ExecuteResultHandler<ExecuteSQLResponse>() {
                         public ExecuteSQLResponse handleRawQuery() throws SQLiteException {
                             ExecuteSQLResponse response = new ExecuteSQLResponse();
@@ -141,19 +224,104 @@ public class Database implements ChromeDevtoolsDomain {
                             return response;
                         }
 
-                        public ExecuteSQLResponse handleSelect(Table table, boolean addRowIndex) throws SQLiteException {
+                        public ExecuteSQLResponse handleSelect(Table table, TableColumns columns, RowSelection rows, boolean addRowIndex) throws SQLiteException {
+                            final long materializeStart = System.nanoTime();
                             ExecuteSQLResponse response = new ExecuteSQLResponse();
 
                             final ArrayList<String> columnNames = new ArrayList<>();
                             if (addRowIndex) {
-                                columnNames.add("<index>");
+                                columnNames.add(columns.rowKeyColumnName());
+                            }
+                            columnNames.addAll(columns.names);
+
+                            response.columnNames = columnNames;
+                            response.values = flattenRows(table, columns, rows, limit, addRowIndex, plan);
+                            if (plan != null) {
+                                plan.materializeNanos = System.nanoTime() - materializeStart;
+                            }
+                            return response;
+                        }
+
+                        public ExecuteSQLResponse handleJoin(Table table,
+                                TableColumns columns,
+                                RowSelection rows,
+                                Table joinedTable,
+                                TableColumns joinedColumns,
+                                long linkColumnIndex,
+                                boolean backlink) throws SQLiteException {
+                            final long materializeStart = System.nanoTime();
+                            ExecuteSQLResponse response = new ExecuteSQLResponse();
+
+                            final String joinedPrefix = (backlink ? joinedTable.getName() : columns.names.get((int) linkColumnIndex)) + '.';
+                            final ArrayList<String> columnNames = new ArrayList<>();
+                            columnNames.add(columns.rowKeyColumnName());
+                            columnNames.addAll(columns.names);
+                            columnNames.add(joinedPrefix + joinedColumns.rowKeyColumnName());
+                            for (String name : joinedColumns.names) {
+                                columnNames.add(joinedPrefix + name);
+                            }
+
+                            final LinkJoin join = backlink
+                                    ? LinkJoin.backlinks(rows, ascendingOrder, limit, joinedTable, linkColumnIndex)
+                                    : LinkJoin.links(table, rows, ascendingOrder, linkColumnIndex);
+                            response.columnNames = columnNames;
+                            response.values = flattenJoinedRows(table, columns, join, joinedTable, joinedColumns, limit, plan);
+                            if (plan != null) {
+                                plan.materializeNanos = System.nanoTime() - materializeStart;
+                            }
+                            return response;
+                        }
+
+                        public ExecuteSQLResponse handleGroupBy(Table table, long columnIndex, ValueCounts counts, boolean withCount) throws SQLiteException {
+                            final long materializeStart = System.nanoTime();
+                            ExecuteSQLResponse response = new ExecuteSQLResponse();
+
+                            final ArrayList<String> columnNames = new ArrayList<>();
+                            columnNames.add(table.getColumnName(columnIndex));
+                            if (withCount) {
+                                columnNames.add("COUNT(*)");
                             }
-                            for (int i = 0; i < table.getColumnCount(); i++) {
-                                columnNames.add(table.getColumnName(i));
+
+                            final List<Object> values = new ArrayList<>();
+                            long usedBytes = 0;
+                            long numRows = 0;
+                            boolean truncated = false;
+                            for (Map.Entry<Object, Long> entry : counts.counts.entrySet()) {
+                                if (numRows >= limit) {
+                                    truncated = true;
+                                    break;
+                                }
+                                final int rowStart = values.size();
+                                long rowBytes = RowMaterializer.addValue(values, formatter.formatRawValue(entry.getKey()));
+                                if (withCount) {
+                                    rowBytes += RowMaterializer.addValue(values, entry.getValue());
+                                }
+                                // 最低1行は返す。予算を超える行は捨てて打ち切る
+                                if (numRows > 0 && usedBytes + rowBytes > byteLimit) {
+                                    values.subList(rowStart, values.size()).clear();
+                                    truncated = true;
+                                    break;
+                                }
+                                usedBytes += rowBytes;
+                                numRows++;
+                            }
+                            if (truncated) {
+                                for (int column = 0; column < columnNames.size(); column++) {
+                                    values.add("{truncated}");
+                                }
+                            } else if (counts.hasOther) {
+                                usedBytes += RowMaterializer.addValue(values, "{other}");
+                                if (withCount) {
+                                    usedBytes += RowMaterializer.addValue(values, counts.otherCount);
+                                }
                             }
 
                             response.columnNames = columnNames;
-                            response.values = flattenRows(table, limit, addRowIndex);
+                            response.values = values;
+                            if (plan != null) {
+                                plan.materializeNanos = System.nanoTime() - materializeStart;
+                                plan.resultBytes = usedBytes;
+                            }
                             return response;
                         }
 
@@ -181,109 +349,192 @@ public class Database implements ChromeDevtoolsDomain {
         }
     }
 
-    private List<Object> flattenRows(Table table, long limit, boolean addRowIndex) {
+    @ChromeDevtoolsMethod
+    @SuppressWarnings("unused")
+    public JsonRpcResult getColumnStatistics(JsonRpcPeer peer, JSONObject params) {
+        GetColumnStatisticsRequest request = objectMapper.convertValue(params, GetColumnStatisticsRequest.class);
+        GetColumnStatisticsResponse response = new GetColumnStatisticsResponse();
+        try {
+            final List<ColumnStatisticsObject> columns = new ArrayList<>();
+            for (ColumnStatistics statistics : realmPeerManager.getColumnStatistics(request.databaseId, request.tableName)) {
+                final ColumnStatisticsObject column = new ColumnStatisticsObject();
+                column.name = statistics.name;
+                column.type = statistics.type.name();
+                column.min = formatter.formatRawValue(statistics.min);
+                column.max = formatter.formatRawValue(statistics.max);
+                column.average = statistics.average;
+                column.nullCount = statistics.nullCount;
+                column.distinctCount = statistics.distinctCount;
+                column.exactDistinctCount = statistics.exactDistinctCount;
+                columns.add(column);
+            }
+            response.columns = columns;
+        } catch (SQLiteException e) {
+            Error error = new Error();
+            error.code = 0;
+            error.message = e.getMessage();
+            response.error = error;
+        }
+        return response;
+    }
+
+    @ChromeDevtoolsMethod
+    @SuppressWarnings("unused")
+    public JsonRpcResult getDatabaseFileStatus(JsonRpcPeer peer, JSONObject params) {
+        GetDatabaseFileStatusResponse response = new GetDatabaseFileStatusResponse();
+        response.files = realmPeerManager.getDatabaseFileStatuses();
+        return response;
+    }
+
+    @ChromeDevtoolsMethod
+    @SuppressWarnings("unused")
+    public JsonRpcResult compactDatabase(JsonRpcPeer peer, JSONObject params) {
+        CompactDatabaseRequest request = objectMapper.convertValue(params, CompactDatabaseRequest.class);
+        try {
+            return realmPeerManager.compactDatabase(request.databaseId);
+        } catch (RuntimeException e) {
+            Error error = new Error();
+            error.code = 0;
+            error.message = e.getMessage();
+            CompactDatabaseResponse response = new CompactDatabaseResponse();
+            response.error = error;
+            return response;
+        }
+    }
+
+    @ChromeDevtoolsMethod
+    @SuppressWarnings("unused")
+    public JsonRpcResult snapshotDatabase(JsonRpcPeer peer, JSONObject params) {
+        SnapshotDatabaseRequest request = objectMapper.convertValue(params, SnapshotDatabaseRequest.class);
+        SnapshotDatabaseResponse response = new SnapshotDatabaseResponse();
+        try {
+            response.databaseId = realmPeerManager.snapshotDatabase(request.databaseId);
+        } catch (RuntimeException e) {
+            Error error = new Error();
+            error.code = 0;
+            error.message = e.getMessage();
+            response.error = error;
+        }
+        return response;
+    }
+
+    @ChromeDevtoolsMethod
+    @SuppressWarnings("unused")
+    public JsonRpcResult diffTable(JsonRpcPeer peer, JSONObject params) {
+        DiffTableRequest request = objectMapper.convertValue(params, DiffTableRequest.class);
+        ExecuteSQLResponse response = new ExecuteSQLResponse();
+        try {
+            final TableDiff diff = realmPeerManager.diffTable(request.databaseId, request.baseDatabaseId, request.tableName, limit);
+            response.columnNames = Arrays.asList("change", "key", "column", "before", "after");
+            final List<Object> values = new ArrayList<>();
+            for (TableDiff.Change change : diff.changes) {
+                values.add(change.kind.name());
+                // 行を識別する値なので省略しない
+                values.add(change.key instanceof String ? change.key : formatter.formatRawValue(change.key));
+                values.add(change.column == null ? formatter.nullValue : change.column);
+                values.add(formatter.formatRawValue(change.before));
+                values.add(formatter.formatRawValue(change.after));
+            }
+            if (diff.truncated) {
+                for (int column = 0; column < response.columnNames.size(); column++) {
+                    values.add("{truncated}");
+                }
+            }
+            response.values = values;
+        } catch (SQLiteException e) {
+            Error error = new Error();
+            error.code = 0;
+            error.message = e.getMessage();
+            response.sqlError = error;
+        }
+        return response;
+    }
+
+    private List<Object> flattenRows(final Table table, TableColumns columns, RowSelection rows, long limit, boolean addRowIndex, @Nullable QueryPlan plan) {
+        final RowFetcher rowFetcher = RowFetcher.getInstance();
+        return materializer.flatten(rows, new RowMaterializer.RowReader() {
+            @Override
+            public RowAccessor read(long rowIndex) {
+                return RowWrapper.wrap(rowFetcher.getRow(table, rowIndex));
+            }
+        }, columns.types, columns.primaryKeyColumn, limit, addRowIndex, plan);
+    }
+
+    /**
+     * {@link LinkJoin} が返す組ごとに、元の行と結合した行を並べます。
+     * <p>
+     * 結合した行は同じインデックスが何度現れても1回だけ読み出します。
+     */
+    private List<Object> flattenJoinedRows(Table table,
+            TableColumns columns,
+            LinkJoin join,
+            Table joinedTable,
+            TableColumns joinedColumns,
+            long limit,
+            @Nullable QueryPlan plan) {
         Util.throwIfNot(limit >= 0);
         final List<Object> flatList = new ArrayList<>();
-        long numColumns = table.getColumnCount();
+        final long numJoinedColumns = joinedColumns.types.length;
 
-        final RowFetcher rowFetcher = RowFetcher.getInstance();
-        final long tableSize = table.size();
-        for (long index = 0; index < limit && index < tableSize; index++) {
-            final long row = ascendingOrder ? index : (tableSize - index - 1);
-            final RowWrapper rowData = RowWrapper.wrap(rowFetcher.getRow(table, row));
-            if (addRowIndex) {
-                flatList.add(rowData.getIndex());
+        final Map<Long, List<Object>> joinedRowCache = new HashMap<>();
+        final List<Object> nullJoinedRow = new ArrayList<>();
+        for (long column = 0; column <= numJoinedColumns; column++) {
+            nullJoinedRow.add(formatter.nullValue);
+        }
+
+        long usedBytes = 0;
+        long scannedRows = 0;
+        long numRows = 0;
+        long sourceRow = -1;
+        List<Object> sourceValues = null;
+        boolean truncated = false;
+        while (join.next()) {
+            if (numRows >= limit) {
+                truncated = true;
+                break;
             }
-            for (int column = 0; column < numColumns; column++) {
-                switch (rowData.getColumnType(column)) {
-                    case INTEGER:
-                        if (rowData.isNull(column)) {
-                            flatList.add(NULL);
-                        } else {
-                            flatList.add(rowData.getLong(column));
-                        }
-                        break;
-                    case BOOLEAN:
-                        if (rowData.isNull(column)) {
-                            flatList.add(NULL);
-                        } else {
-                            flatList.add(rowData.getBoolean(column));
-                        }
-                        break;
-                    case STRING:
-                        if (rowData.isNull(column)) {
-                            flatList.add(NULL);
-                        } else {
-                            flatList.add(rowData.getString(column));
-                        }
-                        break;
-                    case BINARY:
-                        if (rowData.isNull(column)) {
-                            flatList.add(NULL);
-                        } else {
-                            flatList.add(rowData.getBinaryByteArray(column));
-                        }
-                        break;
-                    case FLOAT:
-                        if (rowData.isNull(column)) {
-                            flatList.add(NULL);
-                        } else {
-                            final float aFloat = rowData.getFloat(column);
-                            if (Float.isNaN(aFloat)) {
-                                flatList.add("NaN");
-                            } else if (aFloat == Float.POSITIVE_INFINITY) {
-                                flatList.add("Infinity");
-                            } else if (aFloat == Float.NEGATIVE_INFINITY) {
-                                flatList.add("-Infinity");
-                            } else {
-                                flatList.add(aFloat);
-                            }
-                        }
-                        break;
-                    case DOUBLE:
-                        if (rowData.isNull(column)) {
-                            flatList.add(NULL);
-                        } else {
-                            final double aDouble = rowData.getDouble(column);
-                            if (Double.isNaN(aDouble)) {
-                                flatList.add("NaN");
-                            } else if (aDouble == Double.POSITIVE_INFINITY) {
-                                flatList.add("Infinity");
-                            } else if (aDouble == Double.NEGATIVE_INFINITY) {
-                                flatList.add("-Infinity");
-                            } else {
-                                flatList.add(aDouble);
-                            }
-                        }
-                        break;
-                    case OLD_DATE:
-                    case DATE:
-                        if (rowData.isNull(column)) {
-                            flatList.add(NULL);
-                        } else {
-                            flatList.add(formatDate(rowData.getDate(column)));
-                        }
-                        break;
-                    case OBJECT:
-                        if (rowData.isNullLink(column)) {
-                            flatList.add(NULL);
-                        } else {
-                            flatList.add(rowData.getLink(column));
-                        }
-                        break;
-                    case LIST:
-                        // LIST never be null
-                        flatList.add(formatList(rowData.getLinkList(column)));
-                        break;
-                    default:
-                        flatList.add("unknown column type: " + rowData.getColumnType(column));
-                        break;
+            if (sourceValues == null || join.getSourceRow() != sourceRow) {
+                sourceRow = join.getSourceRow();
+                sourceValues = readRowValues(table, sourceRow, columns);
+                scannedRows++;
+            }
+            final long joinedRow = join.getJoinedRow();
+            List<Object> joinedValues;
+            if (joinedRow < 0) {
+                joinedValues = nullJoinedRow;
+            } else {
+                joinedValues = joinedRowCache.get(joinedRow);
+                if (joinedValues == null) {
+                    joinedValues = readRowValues(joinedTable, joinedRow, joinedColumns);
+                    joinedRowCache.put(joinedRow, joinedValues);
+                    scannedRows++;
                 }
             }
+
+            final int rowStart = flatList.size();
+            long rowBytes = 0;
+            for (Object value : sourceValues) {
+                rowBytes += RowMaterializer.addValue(flatList, value);
+            }
+            for (Object value : joinedValues) {
+                rowBytes += RowMaterializer.addValue(flatList, value);
+            }
+            if (numRows > 0 && usedBytes + rowBytes > byteLimit) {
+                flatList.subList(rowStart, flatList.size()).clear();
+                truncated = true;
+                break;
+            }
+            usedBytes += rowBytes;
+            numRows++;
+        }
+        if (plan != null) {
+            plan.actualRows = scannedRows;
+            plan.resultBytes = usedBytes;
         }
 
-        if (limit < table.size()) {
-            for (int column = 0; column < numColumns; column++) {
+        if (truncated || join.isPartial()) {
+            final long numResultColumns = columns.types.length + 1 + numJoinedColumns + 1;
+            for (int column = 0; column < numResultColumns; column++) {
                 flatList.add("{truncated}");
             }
         }
@@ -291,6 +542,19 @@ public class Database implements ChromeDevtoolsDomain {
         return flatList;
     }
 
+    /**
+     * 行のインデックスと各カラムの表示用の値を返します。
+     */
+    private List<Object> readRowValues(Table table, long rowIndex, TableColumns columns) {
+        final RowWrapper rowData = RowWrapper.wrap(RowFetcher.getInstance().getRow(table, rowIndex));
+        final List<Object> values = new ArrayList<>(columns.types.length + 1);
+        values.add(materializer.rowKey(rowData, columns.primaryKeyColumn, columns.types));
+        for (int column = 0; column < columns.types.length; column++) {
+            values.add(formatter.formatValue(rowData, column, columns.types[column]));
+        }
+        return values;
+    }
+
     private static class GetDatabaseTableNamesRequest {
         @JsonProperty(required = true)
         public String databaseId;
@@ -320,6 +584,122 @@ public class Database implements ChromeDevtoolsDomain {
         public Error sqlError;
     }
 
+    private static class GetColumnStatisticsRequest {
+        @JsonProperty(required = true)
+        public String databaseId;
+
+        @JsonProperty(required = true)
+        public String tableName;
+    }
+
+    private static class GetColumnStatisticsResponse implements JsonRpcResult {
+        @JsonProperty
+        public List<ColumnStatisticsObject> columns;
+
+        @JsonProperty
+        public Error error;
+    }
+
+    public static class ColumnStatisticsObject {
+        @JsonProperty(required = true)
+        public String name;
+
+        @JsonProperty(required = true)
+        public String type;
+
+        @JsonProperty
+        public Object min;
+
+        @JsonProperty
+        public Object max;
+
+        @JsonProperty
+        public Double average;
+
+        @JsonProperty
+        public Long nullCount;
+
+        @JsonProperty(required = true)
+        public long distinctCount;
+
+        @JsonProperty(required = true)
+        public boolean exactDistinctCount;
+    }
+
+    private static class SnapshotDatabaseRequest {
+        @JsonProperty(required = true)
+        public String databaseId;
+    }
+
+    private static class SnapshotDatabaseResponse implements JsonRpcResult {
+        @JsonProperty
+        public String databaseId;
+
+        @JsonProperty
+        public Error error;
+    }
+
+    private static class DiffTableRequest {
+        @JsonProperty(required = true)
+        public String databaseId;
+
+        @JsonProperty(required = true)
+        public String baseDatabaseId;
+
+        @JsonProperty(required = true)
+        public String tableName;
+    }
+
+    private static class GetDatabaseFileStatusResponse implements JsonRpcResult {
+        @JsonProperty(required = true)
+        public List<DatabaseFileStatus> files;
+    }
+
+    public static class DatabaseFileStatus {
+        @JsonProperty(required = true)
+        public String id;
+
+        @JsonProperty(required = true)
+        public String name;
+
+        @JsonProperty(required = true)
+        public long fileSize;
+
+        @JsonProperty
+        public Long liveDataSize;
+
+        @JsonProperty
+        public Long freeSpaceSize;
+
+        @JsonProperty
+        public Long versions;
+
+        @JsonProperty
+        public String message;
+    }
+
+    private static class CompactDatabaseRequest {
+        @JsonProperty(required = true)
+        public String databaseId;
+    }
+
+    public static class CompactDatabaseResponse implements JsonRpcResult {
+        @JsonProperty
+        public boolean compacted;
+
+        @JsonProperty
+        public long sizeBefore;
+
+        @JsonProperty
+        public long sizeAfter;
+
+        @JsonProperty
+        public long reclaimedBytes;
+
+        @JsonProperty
+        public Error error;
+    }
+
     public static class AddDatabaseEvent {
         @JsonProperty(required = true)
         public DatabaseObject database;
@@ -347,31 +727,6 @@ public class Database implements ChromeDevtoolsDomain {
         public int code;
     }
 
-    private String formatDate(Date date) {
-        if (dateTimeFormatter == null) {
-            dateTimeFormatter = SimpleDateFormat.getDateTimeInstance(SimpleDateFormat.LONG, SimpleDateFormat.LONG);
-        }
-        return dateTimeFormatter.format(date) + " (" + date.getTime() + ')';
-    }
-
-    private String formatList(LinkView linkList) {
-        final StringBuilder sb = new StringBuilder(linkList.getTargetTable().getName());
-        sb.append("{");
-
-        final long size = linkList.size();
-        for (long pos = 0; pos < size; pos++) {
-            sb.append(linkList.getTargetRowIndex(pos));
-            sb.append(',');
-        }
-        if (size != 0) {
-            // remove last ','
-            sb.setLength(sb.length() - 1);
-        }
-
-        sb.append("}");
-        return sb.toString();
-    }
-
     static class RowFetcher {
         private static RowFetcher sInstance = new RowFetcher();
 
@@ -387,7 +742,7 @@ public class Database implements ChromeDevtoolsDomain {
         }
     }
 
-    static class RowWrapper {
+    static class RowWrapper implements RowAccessor {
         static RowWrapper wrap(Row row) {
             return new RowWrapper(row);
         }
@@ -398,95 +753,127 @@ public class Database implements ChromeDevtoolsDomain {
             this.row = row;
         }
 
-        long getIndex() {
+        @Override
+        public long getIndex() {
             return row.getIndex();
         }
 
-        StethoRealmFieldType getColumnType(long columnIndex) {
+        @Override
+        public StethoRealmFieldType getColumnType(long columnIndex) {
             // io.realm.RealmFieldType
-            final Enum<?> columnType = row.getColumnType(columnIndex);
-            final String name = columnType.name();
-            if (name.equals("INTEGER")) {
-                return StethoRealmFieldType.INTEGER;
-            }
-            if (name.equals("BOOLEAN")) {
-                return StethoRealmFieldType.BOOLEAN;
-            }
-            if (name.equals("STRING")) {
-                return StethoRealmFieldType.STRING;
-            }
-            if (name.equals("BINARY")) {
-                return StethoRealmFieldType.BINARY;
-            }
-            if (name.equals("UNSUPPORTED_TABLE")) {
-                return StethoRealmFieldType.UNSUPPORTED_TABLE;
-            }
-            if (name.equals("UNSUPPORTED_MIXED")) {
-                return StethoRealmFieldType.UNSUPPORTED_MIXED;
-            }
-            if (name.equals("UNSUPPORTED_DATE")) {
-                return StethoRealmFieldType.OLD_DATE;
-            }
-            if (name.equals("DATE")) {
-                return StethoRealmFieldType.DATE;
-            }
-            if (name.equals("FLOAT")) {
-                return StethoRealmFieldType.FLOAT;
-            }
-            if (name.equals("DOUBLE")) {
-                return StethoRealmFieldType.DOUBLE;
-            }
-            if (name.equals("OBJECT")) {
-                return StethoRealmFieldType.OBJECT;
-            }
-            if (name.equals("LIST")) {
-                return StethoRealmFieldType.LIST;
-            }
-            return StethoRealmFieldType.UNKNOWN;
+            return StethoRealmFieldType.from(row.getColumnType(columnIndex));
         }
 
-        boolean isNull(long columnIndex) {
+        @Override
+        public boolean isNull(long columnIndex) {
             return row.isNull(columnIndex);
         }
 
-        boolean isNullLink(long columnIndex) {
+        @Override
+        public boolean isNullLink(long columnIndex) {
             return row.isNullLink(columnIndex);
         }
 
-        long getLong(long columnIndex) {
+        @Override
+        public long getLong(long columnIndex) {
             return row.getLong(columnIndex);
         }
 
-        boolean getBoolean(long columnIndex) {
+        @Override
+        public boolean getBoolean(long columnIndex) {
             return row.getBoolean(columnIndex);
         }
 
-        float getFloat(long columnIndex) {
+        @Override
+        public float getFloat(long columnIndex) {
             return row.getFloat(columnIndex);
         }
 
-        double getDouble(long columnIndex) {
+        @Override
+        public double getDouble(long columnIndex) {
             return row.getDouble(columnIndex);
         }
 
-        Date getDate(long columnIndex) {
+        @Override
+        public Date getDate(long columnIndex) {
             return row.getDate(columnIndex);
         }
 
-        String getString(long columnIndex) {
+        @Override
+        public String getString(long columnIndex) {
             return row.getString(columnIndex);
         }
 
-        byte[] getBinaryByteArray(long columnIndex) {
+        @Override
+        public byte[] getBinaryByteArray(long columnIndex) {
             return row.getBinaryByteArray(columnIndex);
         }
 
-        long getLink(long columnIndex) {
+        @Override
+        public long getLink(long columnIndex) {
             return row.getLink(columnIndex);
         }
 
         LinkView getLinkList(long columnIndex) {
             return row.getLinkList(columnIndex);
         }
+
+        @Override
+        public String getLinkListTargetName(long columnIndex) {
+            return getLinkList(columnIndex).getTargetTable().getName();
+        }
+
+        @Override
+        public long[] getLinkListTargets(long columnIndex) {
+            final LinkView linkList = getLinkList(columnIndex);
+            final long[] targets = new long[(int) linkList.size()];
+            for (int pos = 0; pos < targets.length; pos++) {
+                targets[pos] = linkList.getTargetRowIndex(pos);
+            }
+            return targets;
+        }
+
+        /**
+         * カラムの値をそのまま返します。
+         *
+         * @return null の場合は {@code null}。OBJECT はリンク先の行インデックス、
+         * LIST はリンク先の行インデックスの {@code List<Long>} です。
+         */
+        Object getValue(long columnIndex, StethoRealmFieldType type) {
+            if (type == StethoRealmFieldType.OBJECT) {
+                return isNullLink(columnIndex) ? null : getLink(columnIndex);
+            }
+            if (type == StethoRealmFieldType.LIST) {
+                final LinkView linkList = getLinkList(columnIndex);
+                final List<Long> targets = new ArrayList<>();
+                final long size = linkList.size();
+                for (long pos = 0; pos < size; pos++) {
+                    targets.add(linkList.getTargetRowIndex(pos));
+                }
+                return targets;
+            }
+            if (isNull(columnIndex)) {
+                return null;
+            }
+            switch (type) {
+                case INTEGER:
+                    return getLong(columnIndex);
+                case BOOLEAN:
+                    return getBoolean(columnIndex);
+                case STRING:
+                    return getString(columnIndex);
+                case BINARY:
+                    return getBinaryByteArray(columnIndex);
+                case OLD_DATE:
+                case DATE:
+                    return getDate(columnIndex);
+                case FLOAT:
+                    return getFloat(columnIndex);
+                case DOUBLE:
+                    return getDouble(columnIndex);
+                default:
+                    throw new IllegalArgumentException(type.name());
+            }
+        }
     }
 }
@@ -0,0 +1,168 @@
+package com.uphyca.stetho_realm;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.Nullable;
+
+/**
+ * データベースファイルを設定されたキーで開けるかどうかを、複数のファイルについて並行して調べます。
+ * <p>
+ * 結果はファイルのパスごとに、調べた時点のサイズと更新日時とともに保持し、
+ * ファイルが変わっていなければ再利用します。時間内に終わらなかった調査もバックグラウンドで続け、
+ * 終わった時点の結果を保持します。
+ */
+final class DatabaseFileProber {
+
+    enum Status {
+        PLAIN("plain", true),
+        ENCRYPTED("encrypted", true),
+        IN_MEMORY("in-memory", true),
+        WRONG_KEY("wrong encryption key", false),
+        /**
+         * キーが指定されていない暗号化ファイル、または Realm のファイルではないもの。
+         */
+        UNREADABLE("unreadable (encrypted or not a Realm file)", false),
+        TIMEOUT("probe timed out", true);
+
+        final String label;
+        /**
+         * 開ける見込みがあるかどうか。{@code false} のファイルは開こうとしません。
+         */
+        final boolean readable;
+
+        Status(String label, boolean readable) {
+            this.label = label;
+            this.readable = readable;
+        }
+    }
+
+    interface Probe {
+        /**
+         * ファイルを開いてみて、結果を返します。プールのスレッドで呼び出されます。
+         */
+        Status probe(File file);
+    }
+
+    private final Probe probe;
+    private final long timeoutMillis;
+    private final int poolSize;
+    private final ThreadPoolExecutor executor;
+
+    // guarded by this
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    DatabaseFileProber(Probe probe, int poolSize, long timeoutMillis) {
+        this.probe = probe;
+        this.poolSize = poolSize;
+        this.timeoutMillis = timeoutMillis;
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize,
+                timeoutMillis, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private int count;
+
+                    @Override
+                    public synchronized Thread newThread(Runnable runnable) {
+                        final Thread thread = new Thread(runnable, "StethoRealm-probe-" + (++count));
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * ファイルを並行して調べ、結果を返します。
+     * <p>
+     * 各ファイルの待ち時間は、プールの空きを待つ分を除いて {@code timeoutMillis} までです。
+     * 間に合わなかったファイルは {@link Status#TIMEOUT} になります。
+     *
+     * @return ファイル -> 結果。{@code files} と同じ順序です。
+     */
+    Map<File, Status> probeAll(List<File> files) {
+        final List<Future<Status>> futures = new ArrayList<>(files.size());
+        for (File file : files) {
+            futures.add(submit(file));
+        }
+
+        final Map<File, Status> statuses = new LinkedHashMap<>();
+        final long start = System.currentTimeMillis();
+        for (int i = 0; i < files.size(); i++) {
+            // i 番目のファイルは、前の (i / poolSize) 巡が終わってから調べ始める
+            final long deadline = start + timeoutMillis * (i / poolSize + 1);
+            statuses.put(files.get(i), await(futures.get(i), deadline - System.currentTimeMillis()));
+        }
+        return statuses;
+    }
+
+    /**
+     * 調査が終わっていて、その後ファイルが変わっていなければ結果を返します。
+     */
+    @Nullable
+    synchronized Status getStatus(File file) {
+        final Entry entry = entries.get(file.getPath());
+        if (entry == null || !entry.matches(file) || !entry.future.isDone()) {
+            return null;
+        }
+        return await(entry.future, 0);
+    }
+
+    private synchronized Future<Status> submit(final File file) {
+        final Entry cached = entries.get(file.getPath());
+        if (cached != null && cached.matches(file)) {
+            return cached.future;
+        }
+        final FutureTask<Status> future = new FutureTask<>(new Callable<Status>() {
+            @Override
+            public Status call() {
+                return probe.probe(file);
+            }
+        });
+        entries.put(file.getPath(), new Entry(file, future));
+        executor.execute(future);
+        return future;
+    }
+
+    private static Status await(Future<Status> future, long timeoutMillis) {
+        try {
+            return future.get(Math.max(timeoutMillis, 0), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            return Status.TIMEOUT;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Status.TIMEOUT;
+        } catch (ExecutionException e) {
+            return Status.UNREADABLE;
+        }
+    }
+
+    private static final class Entry {
+        final long length;
+        final long lastModified;
+        final Future<Status> future;
+
+        Entry(File file, Future<Status> future) {
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+            this.future = future;
+        }
+
+        boolean matches(File file) {
+            return file.length() == length && file.lastModified() == lastModified;
+        }
+    }
+}
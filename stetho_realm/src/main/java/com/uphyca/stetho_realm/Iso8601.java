@@ -0,0 +1,94 @@
+package com.uphyca.stetho_realm;
+
+/**
+ * エポックからのミリ秒を ISO-8601 形式(UTC、ミリ秒まで)の文字列に変換します。
+ * <p>
+ * {@link java.text.SimpleDateFormat} と違ってスレッドセーフで、同期も不要です。
+ * 作業用のバッファはスレッドごとに使い回すので、生成するオブジェクトは戻り値の文字列だけです。
+ * 0000 年から 9999 年の範囲外の年は、符号付きの拡張形式(例: {@code +10000}, {@code -0001})で表します。
+ */
+final class Iso8601 {
+
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+    /**
+     * 0000-03-01 から 1970-01-01 までの日数。
+     */
+    private static final long DAYS_0000_TO_1970 = 719468;
+    private static final long DAYS_PER_400_YEARS = 146097;
+
+    // 符号 + 年(最大9桁) + "-MM-DDTHH:MM:SS.sssZ"
+    private static final ThreadLocal<char[]> BUFFER = new ThreadLocal<char[]>() {
+        @Override
+        protected char[] initialValue() {
+            return new char[32];
+        }
+    };
+
+    private Iso8601() {
+    }
+
+    static String format(long epochMillis) {
+        long days = epochMillis / MILLIS_PER_DAY;
+        long millisOfDay = epochMillis % MILLIS_PER_DAY;
+        if (millisOfDay < 0) {
+            days--;
+            millisOfDay += MILLIS_PER_DAY;
+        }
+
+        // 3月始まりの暦で年月日を求める(月末の閏日を扱いやすくするため)
+        final long z = days + DAYS_0000_TO_1970;
+        final long era = (z >= 0 ? z : z - (DAYS_PER_400_YEARS - 1)) / DAYS_PER_400_YEARS;
+        final long dayOfEra = z - era * DAYS_PER_400_YEARS;
+        final long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        final long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        final long shiftedMonth = (5 * dayOfYear + 2) / 153;
+        final int day = (int) (dayOfYear - (153 * shiftedMonth + 2) / 5 + 1);
+        final int month = (int) (shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9);
+        final long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        final int millis = (int) (millisOfDay % 1000);
+        final int seconds = (int) (millisOfDay / 1000 % 60);
+        final int minutes = (int) (millisOfDay / (60 * 1000) % 60);
+        final int hours = (int) (millisOfDay / (60 * 60 * 1000));
+
+        final char[] buffer = BUFFER.get();
+        int position = writeYear(buffer, year);
+        buffer[position++] = '-';
+        position = writeDigits(buffer, position, month, 2);
+        buffer[position++] = '-';
+        position = writeDigits(buffer, position, day, 2);
+        buffer[position++] = 'T';
+        position = writeDigits(buffer, position, hours, 2);
+        buffer[position++] = ':';
+        position = writeDigits(buffer, position, minutes, 2);
+        buffer[position++] = ':';
+        position = writeDigits(buffer, position, seconds, 2);
+        buffer[position++] = '.';
+        position = writeDigits(buffer, position, millis, 3);
+        buffer[position++] = 'Z';
+        return new String(buffer, 0, position);
+    }
+
+    private static int writeYear(char[] buffer, long year) {
+        int position = 0;
+        if (year < 0) {
+            buffer[position++] = '-';
+            year = -year;
+        } else if (year > 9999) {
+            buffer[position++] = '+';
+        }
+        int width = 4;
+        for (long rest = year / 10000; rest > 0; rest /= 10) {
+            width++;
+        }
+        return writeDigits(buffer, position, year, width);
+    }
+
+    private static int writeDigits(char[] buffer, int position, long value, int width) {
+        for (int i = position + width - 1; i >= position; i--) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return position + width;
+    }
+}
@@ -0,0 +1,180 @@
+package com.uphyca.stetho_realm;
+
+import com.uphyca.stetho_realm.Database.RowFetcher;
+import com.uphyca.stetho_realm.Database.RowWrapper;
+import com.uphyca.stetho_realm.Database.StethoRealmFieldType;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import io.realm.internal.LinkView;
+import io.realm.internal.Table;
+
+/**
+ * OBJECT/LIST カラムのリンクをたどって、元の行と結合する行のインデックスの組を順に返します。
+ * <p>
+ * リンク先のない行も結合する行を {@code -1} として1回返します(LEFT JOIN)。
+ * 行の値は読まず、リンクのインデックスだけをたどります。
+ */
+abstract class LinkJoin {
+
+    /**
+     * 逆リンクを集めるために走査するリンク元のテーブルの最大行数。
+     */
+    static final long MAX_BACKLINK_SCAN_ROWS = 1000000L;
+
+    private final RowSelection rows;
+    private final boolean ascending;
+    private long position = -1;
+    private long[] joinedRows;
+    private int joinedPosition;
+
+    private long sourceRow = -1;
+    private long joinedRow = -1;
+
+    private LinkJoin(RowSelection rows, boolean ascending) {
+        this.rows = rows;
+        this.ascending = ascending;
+    }
+
+    /**
+     * {@code table} の各行から {@code linkColumnIndex} のリンク先をたどります。
+     */
+    static LinkJoin links(final Table table, RowSelection rows, boolean ascending, final long linkColumnIndex) {
+        final boolean isList = StethoRealmFieldType.from(table.getColumnType(linkColumnIndex)) == StethoRealmFieldType.LIST;
+        final RowFetcher rowFetcher = RowFetcher.getInstance();
+        return new LinkJoin(rows, ascending) {
+            @Override
+            long[] findJoinedRows(long sourceRow) {
+                final RowWrapper rowData = RowWrapper.wrap(rowFetcher.getRow(table, sourceRow));
+                if (isList) {
+                    return rowData.getLinkListTargets(linkColumnIndex);
+                }
+                if (rowData.isNullLink(linkColumnIndex)) {
+                    return EMPTY;
+                }
+                return new long[]{rowData.getLink(linkColumnIndex)};
+            }
+        };
+    }
+
+    /**
+     * {@code linkTable} の {@code linkColumnIndex} から {@code table} の各行へのリンク(逆リンク)をたどります。
+     * <p>
+     * Realm 2.x には逆リンクのインデックスがないので、{@code linkTable} を1回走査してリンクを集めます。
+     * 集めるのは {@code rows} の先頭 {@code maxSourceRows} 行へのリンクだけなので、
+     * メモリ使用量はページの大きさで抑えられます。
+     * 走査するのは {@code linkTable} の先頭 {@link #MAX_BACKLINK_SCAN_ROWS} 行までで、
+     * それより大きい場合は {@link #isPartial()} が {@code true} を返します。
+     */
+    static LinkJoin backlinks(RowSelection rows, boolean ascending, long maxSourceRows, Table linkTable, long linkColumnIndex) {
+        final long numRows = rows.size();
+        final long numCandidates = Math.min(numRows, maxSourceRows);
+        final Map<Long, LongList> backlinks = new HashMap<>();
+        for (long i = 0; i < numCandidates; i++) {
+            backlinks.put(rows.get(ascending ? i : (numRows - i - 1)), new LongList());
+        }
+
+        final boolean isList = StethoRealmFieldType.from(linkTable.getColumnType(linkColumnIndex)) == StethoRealmFieldType.LIST;
+        final RowFetcher rowFetcher = RowFetcher.getInstance();
+        final long linkTableSize = linkTable.size();
+        final long numScannedRows = Math.min(linkTableSize, MAX_BACKLINK_SCAN_ROWS);
+        for (long index = 0; index < numScannedRows; index++) {
+            final RowWrapper rowData = RowWrapper.wrap(rowFetcher.getRow(linkTable, index));
+            if (isList) {
+                final LinkView linkList = rowData.getLinkList(linkColumnIndex);
+                final long size = linkList.size();
+                for (long pos = 0; pos < size; pos++) {
+                    final LongList sources = backlinks.get(linkList.getTargetRowIndex(pos));
+                    if (sources != null) {
+                        sources.add(index);
+                    }
+                }
+            } else if (!rowData.isNullLink(linkColumnIndex)) {
+                final LongList sources = backlinks.get(rowData.getLink(linkColumnIndex));
+                if (sources != null) {
+                    sources.add(index);
+                }
+            }
+        }
+
+        final boolean partial = numScannedRows < linkTableSize;
+        return new LinkJoin(rows, ascending) {
+            @Override
+            long[] findJoinedRows(long sourceRow) {
+                final LongList sources = backlinks.get(sourceRow);
+                return sources == null ? EMPTY : sources.toArray();
+            }
+
+            @Override
+            boolean isPartial() {
+                return partial;
+            }
+        };
+    }
+
+    private static final long[] EMPTY = new long[0];
+
+    abstract long[] findJoinedRows(long sourceRow);
+
+    /**
+     * @return リンク元の走査を打ち切ったため、結合する行が欠けている可能性があれば {@code true}。
+     */
+    boolean isPartial() {
+        return false;
+    }
+
+    /**
+     * 次の組に進みます。
+     *
+     * @return 次の組がなければ {@code false}。
+     */
+    boolean next() {
+        if (joinedRows != null && joinedPosition + 1 < joinedRows.length) {
+            joinedPosition++;
+            joinedRow = joinedRows[joinedPosition];
+            return true;
+        }
+        final long numRows = rows.size();
+        position++;
+        if (position >= numRows) {
+            return false;
+        }
+        sourceRow = rows.get(ascending ? position : (numRows - position - 1));
+        joinedRows = findJoinedRows(sourceRow);
+        joinedPosition = 0;
+        joinedRow = joinedRows.length == 0 ? -1 : joinedRows[0];
+        return true;
+    }
+
+    long getSourceRow() {
+        return sourceRow;
+    }
+
+    /**
+     * @return 結合する行のインデックス。リンクがない場合は {@code -1}。
+     */
+    long getJoinedRow() {
+        return joinedRow;
+    }
+
+    private static final class LongList {
+        private long[] values = new long[4];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                final long[] newValues = new long[size * 2];
+                System.arraycopy(values, 0, newValues, 0, size);
+                values = newValues;
+            }
+            values[size++] = value;
+        }
+
+        long[] toArray() {
+            final long[] result = new long[size];
+            System.arraycopy(values, 0, result, 0, size);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.uphyca.stetho_realm;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import io.realm.internal.SharedRealm;
+
+/**
+ * {@code LIMIT ? OFFSET ?} でテーブルを先頭から順に読んでいるピアを検出し、次のページを先読みした結果を保持します。
+ * <p>
+ * 同じテーブルで、前のページの直後から同じ件数のページが要求されたら順番に読んでいるとみなします。
+ * 先読みした結果は、ピアごとに1ページ、全体で {@link #MAX_PAGES} ページまで保持し、
+ * 超える場合は最も長く使われていないピアのものから捨てます(各ページの大きさは byteLimit で抑えられています)。
+ * Realm のバージョンが先読みした時点から変わっていれば使わずに捨てます。
+ */
+final class PagePrefetcher {
+
+    static final int MAX_PAGES = 4;
+
+    static final class Page {
+        final String databaseId;
+        final String tableName;
+        final long offset;
+        final long count;
+
+        Page(String databaseId, String tableName, long offset, long count) {
+            this.databaseId = databaseId;
+            this.tableName = tableName;
+            this.offset = offset;
+            this.count = count;
+        }
+
+        boolean sameAs(Page other) {
+            return other != null
+                    && databaseId.equals(other.databaseId)
+                    && tableName.equals(other.tableName)
+                    && offset == other.offset
+                    && count == other.count;
+        }
+
+        Page next() {
+            return new Page(databaseId, tableName, offset + count, count);
+        }
+    }
+
+    private static final class PeerState {
+        Page lastRequested;
+        Page prefetched;
+        SharedRealm.VersionID prefetchedVersion;
+        Object prefetchedResult;
+
+        void clearPrefetched() {
+            prefetched = null;
+            prefetchedVersion = null;
+            prefetchedResult = null;
+        }
+    }
+
+    // guarded by this。最近使われたピアが末尾に来る
+    private final Map<Object, PeerState> peers = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * ページの要求を記録します。
+     *
+     * @return 順番に読んでいると判断した場合は、次に先読みするページ。それ以外は {@code null}。
+     */
+    @Nullable
+    synchronized Page onRequest(Object peer, Page page) {
+        PeerState state = peers.get(peer);
+        if (state == null) {
+            state = new PeerState();
+            peers.put(peer, state);
+        }
+        final Page previous = state.lastRequested;
+        state.lastRequested = page;
+        if (page.count == Long.MAX_VALUE || previous == null || !previous.next().sameAs(page)) {
+            return null;
+        }
+        final Page next = page.next();
+        return next.sameAs(state.prefetched) ? null : next;
+    }
+
+    /**
+     * 先読みしてあるページを取り出します。
+     *
+     * @param version 現在の Realm のバージョン。先読みした時点と違えば先読みした結果は使いません。
+     * @return 先読みしたページの結果。ない場合は {@code null}。
+     */
+    @Nullable
+    synchronized Object take(Object peer, Page page, SharedRealm.VersionID version) {
+        final PeerState state = peers.get(peer);
+        if (state == null || state.prefetched == null) {
+            return null;
+        }
+        final Object result = page.sameAs(state.prefetched) && state.prefetchedVersion.compareTo(version) == 0
+                ? state.prefetchedResult
+                : null;
+        state.clearPrefetched();
+        return result;
+    }
+
+    /**
+     * まだ先読みする必要があるかどうか(そのピアが最後に要求したページの次のページかどうか)を返します。
+     */
+    synchronized boolean isWanted(Object peer, Page page) {
+        final PeerState state = peers.get(peer);
+        return state != null && state.lastRequested != null && state.lastRequested.next().sameAs(page);
+    }
+
+    synchronized void put(Object peer, Page page, SharedRealm.VersionID version, Object result) {
+        final PeerState state = peers.get(peer);
+        if (state == null) {
+            return;
+        }
+        state.prefetched = page;
+        state.prefetchedVersion = version;
+        state.prefetchedResult = result;
+
+        int pages = 0;
+        for (PeerState each : peers.values()) {
+            if (each.prefetched != null) {
+                pages++;
+            }
+        }
+        for (Iterator<PeerState> it = peers.values().iterator(); pages > MAX_PAGES && it.hasNext(); ) {
+            final PeerState eldest = it.next();
+            if (eldest != state && eldest.prefetched != null) {
+                eldest.clearPrefetched();
+                pages--;
+            }
+        }
+    }
+
+    synchronized void removePeer(Object peer) {
+        peers.remove(peer);
+    }
+
+    synchronized void removeDatabase(String databaseId) {
+        for (PeerState state : peers.values()) {
+            if (state.prefetched != null && state.prefetched.databaseId.equals(databaseId)) {
+                state.clearPrefetched();
+            }
+        }
+    }
+}
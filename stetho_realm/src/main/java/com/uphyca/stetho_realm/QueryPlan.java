@@ -0,0 +1,202 @@
+package com.uphyca.stetho_realm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
+
+import io.realm.internal.Table;
+
+/**
+ * {@code EXPLAIN <query>} の結果です。
+ * <p>
+ * クエリの実行中に各段階で値を記録していき、最後に property/value の2列の表として返します。
+ */
+final class QueryPlan {
+
+    static final String ACCESS_FULL_SCAN = "FULL SCAN";
+
+    private static final Pattern EXPLAIN_PATTERN = Pattern.compile("EXPLAIN[ \\t]+(.+)", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    private static final List<String> COLUMN_NAMES = Arrays.asList("property", "value");
+
+    /**
+     * {@code EXPLAIN} で始まるクエリなら、その後ろのクエリを返します。
+     *
+     * @return {@code EXPLAIN} を取り除いたクエリ。{@code EXPLAIN} で始まらない場合は {@code null}。
+     */
+    static String unwrapExplain(String query) {
+        final Matcher matcher = EXPLAIN_PATTERN.matcher(query.trim());
+        return matcher.matches() ? matcher.group(1).trim() : null;
+    }
+
+    final String query;
+
+    /**
+     * リテラルを {@code ?} に置き換えたクエリ。
+     */
+    String shape;
+    /**
+     * キャッシュした解析結果を使ったかどうか。
+     */
+    boolean compiledQueryCached;
+
+    String tableName;
+    final List<String> columns = new ArrayList<>();
+    String access = ACCESS_FULL_SCAN;
+    String primaryKey;
+    boolean primaryKeyUsed;
+    String searchIndex;
+    long estimatedRows;
+    long actualRows;
+
+    long openNanos;
+    long queryNanos;
+    long materializeNanos;
+    /**
+     * 読み出した行を JSON にシリアライズするのにかかった時間。
+     */
+    long serializeNanos;
+    /**
+     * 結果を JSON にシリアライズした際のおおよそのバイト数。返す行数を {@code byteLimit} で制限する際に使う値です。
+     */
+    long resultBytes;
+    /**
+     * 結果を JSON にシリアライズしたバイト数。
+     */
+    long serializedBytes;
+
+    QueryPlan(String query) {
+        this.query = query;
+    }
+
+    /**
+     * テーブル全体を走査する場合の情報を記録します。
+     */
+    void describeFullScan(Table table) {
+        tableName = table.getName();
+        columns.clear();
+        for (long i = 0; i < table.getColumnCount(); i++) {
+            columns.add(table.getColumnName(i));
+        }
+        access = ACCESS_FULL_SCAN;
+        primaryKey = table.hasPrimaryKey() ? table.getColumnName(table.getPrimaryKey()) : null;
+        primaryKeyUsed = false;
+        searchIndex = null;
+        estimatedRows = table.size();
+    }
+
+    /**
+     * 行インデックスを選んで読み出すサンプリングの情報を記録します。
+     */
+    void describeSample(Table table, String method, long sampleSize) {
+        describeFullScan(table);
+        access = "SAMPLE " + method + " (" + sampleSize + " rows)";
+        estimatedRows = sampleSize;
+    }
+
+    /**
+     * {@code LIMIT}/{@code OFFSET} で範囲を指定して読み出す場合の情報を記録します。
+     */
+    void describePage(Table table, long offset, long count, long pageSize) {
+        describeFullScan(table);
+        access = "ROW RANGE (offset " + offset + (count == Long.MAX_VALUE ? "" : ", limit " + count) + ")";
+        estimatedRows = pageSize;
+    }
+
+    /**
+     * 1カラムの値ごとに行数を数える場合の情報を記録します。
+     */
+    void describeGroupBy(Table table, long columnIndex, ValueCounts counts) {
+        describeFullScan(table);
+        columns.clear();
+        columns.add(table.getColumnName(columnIndex));
+        if (counts.usedSearchIndex) {
+            access = "DISTINCT VIEW";
+            searchIndex = table.getColumnName(columnIndex);
+        } else {
+            access = ACCESS_FULL_SCAN + " (hash aggregate, max " + ValueCounts.MAX_GROUPS + " groups)";
+        }
+        // 集計はクエリの段階で終わっている
+        estimatedRows = counts.rowsRead;
+        actualRows = counts.rowsRead;
+    }
+
+    /**
+     * リンクをたどって結合する場合の情報を記録します。
+     */
+    void describeJoin(Table table, Table joinedTable, String linkColumnName, boolean backlink) {
+        describeFullScan(table);
+        for (long i = 0; i < joinedTable.getColumnCount(); i++) {
+            columns.add(joinedTable.getName() + "." + joinedTable.getColumnName(i));
+        }
+        if (backlink) {
+            final long scannedRows = Math.min(joinedTable.size(), LinkJoin.MAX_BACKLINK_SCAN_ROWS);
+            access = "BACKLINK JOIN via " + joinedTable.getName() + "." + linkColumnName + " (" + ACCESS_FULL_SCAN + " of " + joinedTable.getName()
+                    + (scannedRows < joinedTable.size() ? ", first " + scannedRows + " rows" : "") + ")";
+            estimatedRows = table.size() + scannedRows;
+        } else {
+            access = "LINK JOIN via " + linkColumnName;
+        }
+    }
+
+    /**
+     * 1カラムの値で行を探す場合の情報を記録します。
+     */
+    void describeLookup(Table table, String columnName, String access, @Nullable String searchIndex, long estimatedRows) {
+        describeFullScan(table);
+        this.access = access + " on " + columnName;
+        this.searchIndex = searchIndex;
+        this.estimatedRows = estimatedRows;
+    }
+
+    List<String> getColumnNames() {
+        return COLUMN_NAMES;
+    }
+
+    List<Object> toValues() {
+        final List<Object> values = new ArrayList<>();
+        add(values, "query", query);
+        add(values, "shape", shape);
+        add(values, "compiled query", compiledQueryCached ? "cached" : "compiled");
+        add(values, "table", tableName);
+        add(values, "columns", join(columns));
+        add(values, "access", access);
+        add(values, "primary key", primaryKey == null ? "none" : primaryKey + (primaryKeyUsed ? " (used)" : " (not used)"));
+        add(values, "search index", searchIndex == null ? "not used" : searchIndex);
+        add(values, "estimated rows", estimatedRows);
+        add(values, "actual rows", actualRows);
+        add(values, "open ms", toMillis(openNanos));
+        add(values, "query ms", toMillis(queryNanos));
+        add(values, "materialize ms", toMillis(materializeNanos));
+        add(values, "serialize ms", toMillis(serializeNanos));
+        add(values, "total ms", toMillis(openNanos + queryNanos + materializeNanos + serializeNanos));
+        add(values, "estimated result bytes", resultBytes);
+        add(values, "result bytes", serializedBytes);
+        return values;
+    }
+
+    private static void add(List<Object> values, String property, Object value) {
+        values.add(property);
+        values.add(value == null ? "-" : value);
+    }
+
+    private static String toMillis(long nanos) {
+        return String.format(Locale.US, "%.3f", nanos / 1000000.0);
+    }
+
+    private static String join(List<String> names) {
+        final StringBuilder sb = new StringBuilder();
+        for (String name : names) {
+            if (sb.length() != 0) {
+                sb.append(", ");
+            }
+            sb.append(name);
+        }
+        return sb.toString();
+    }
+}
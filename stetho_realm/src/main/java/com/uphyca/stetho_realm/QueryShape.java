@@ -0,0 +1,184 @@
+package com.uphyca.stetho_realm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * クエリのリテラルを {@code ?} に置き換えた形と、置き換えたリテラルの並びです。
+ * <p>
+ * 値だけが違うクエリは同じ形になるので、形をキーにして解析結果({@link CompiledQuery})を使い回せます。
+ * 置き換えるのは次のものです。ダブルクォートで囲まれた識別子の中はそのまま残します。
+ * <ul>
+ * <li>シングルクォートで囲まれた文字列</li>
+ * <li>数値(識別子の一部でないもの)</li>
+ * <li>{@code =} の直後の {@code TRUE}, {@code FALSE}, {@code NULL}</li>
+ * </ul>
+ * また、連続する空白とタブは1つの空白にまとめます。
+ */
+final class QueryShape {
+
+    final String text;
+    /**
+     * 置き換えたリテラルを、クエリに現れた順に、元の表記のまま並べたもの。
+     */
+    final List<String> parameters;
+
+    private QueryShape(String text, List<String> parameters) {
+        this.text = text;
+        this.parameters = parameters;
+    }
+
+    static QueryShape of(String query) {
+        final String trimmed = query.trim();
+        final int length = trimmed.length();
+        final StringBuilder text = new StringBuilder(length);
+        List<String> parameters = Collections.emptyList();
+
+        int i = 0;
+        while (i < length) {
+            final char c = trimmed.charAt(i);
+            int end = -1;
+            if (c == '"') {
+                // 識別子はそのまま写す
+                final int close = trimmed.indexOf('"', i + 1);
+                final int identifierEnd = close < 0 ? length : close + 1;
+                text.append(trimmed, i, identifierEnd);
+                i = identifierEnd;
+                continue;
+            } else if (c == ' ' || c == '\t') {
+                while (i < length && (trimmed.charAt(i) == ' ' || trimmed.charAt(i) == '\t')) {
+                    i++;
+                }
+                text.append(' ');
+                continue;
+            } else if (c == '\'') {
+                end = stringLiteralEnd(trimmed, i);
+            } else if (isNumberStart(trimmed, i)) {
+                end = numberEnd(trimmed, i);
+            } else if (isIdentifierStart(c) && followsEquals(text)) {
+                end = keywordLiteralEnd(trimmed, i);
+            }
+
+            if (end < 0) {
+                text.append(c);
+                i++;
+                continue;
+            }
+            if (parameters.isEmpty()) {
+                parameters = new ArrayList<>(2);
+            }
+            parameters.add(trimmed.substring(i, end));
+            text.append('?');
+            i = end;
+        }
+        return new QueryShape(text.toString(), parameters);
+    }
+
+    /**
+     * {@code LIMIT}/{@code OFFSET} を含むクエリかどうか。解析する前に、文字列だけで判断します。
+     * 識別子の一部に一致した場合はまとめなくなるだけです。
+     */
+    static boolean isPaged(String query) {
+        final String upperCase = query.toUpperCase(Locale.US);
+        return upperCase.contains("LIMIT") || upperCase.contains("OFFSET");
+    }
+
+    /**
+     * @return 閉じていない場合は {@code -1}。
+     */
+    private static int stringLiteralEnd(String query, int start) {
+        int i = start + 1;
+        while (i < query.length()) {
+            if (query.charAt(i) == '\'') {
+                if (i + 1 < query.length() && query.charAt(i + 1) == '\'') {
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    private static boolean isNumberStart(String query, int i) {
+        if (i > 0 && isIdentifierPart(query.charAt(i - 1))) {
+            return false;
+        }
+        final char c = query.charAt(i);
+        if (c == '+' || c == '-') {
+            return i + 1 < query.length() && isDigit(query.charAt(i + 1));
+        }
+        return isDigit(c);
+    }
+
+    /**
+     * @return 数値の直後に識別子が続く場合(例: {@code 1abc})は {@code -1}。
+     */
+    private static int numberEnd(String query, int start) {
+        final int length = query.length();
+        int i = start;
+        if (query.charAt(i) == '+' || query.charAt(i) == '-') {
+            i++;
+        }
+        while (i < length && isDigit(query.charAt(i))) {
+            i++;
+        }
+        if (i < length && query.charAt(i) == '.') {
+            i++;
+            while (i < length && isDigit(query.charAt(i))) {
+                i++;
+            }
+        }
+        if (i < length && (query.charAt(i) == 'e' || query.charAt(i) == 'E')) {
+            int exponent = i + 1;
+            if (exponent < length && (query.charAt(exponent) == '+' || query.charAt(exponent) == '-')) {
+                exponent++;
+            }
+            if (exponent < length && isDigit(query.charAt(exponent))) {
+                i = exponent;
+                while (i < length && isDigit(query.charAt(i))) {
+                    i++;
+                }
+            }
+        }
+        if (i < length && isIdentifierPart(query.charAt(i))) {
+            return -1;
+        }
+        return i;
+    }
+
+    private static int keywordLiteralEnd(String query, int start) {
+        int end = start;
+        while (end < query.length() && isIdentifierPart(query.charAt(end))) {
+            end++;
+        }
+        final String word = query.substring(start, end);
+        if ("TRUE".equalsIgnoreCase(word) || "FALSE".equalsIgnoreCase(word) || "NULL".equalsIgnoreCase(word)) {
+            return end;
+        }
+        return -1;
+    }
+
+    private static boolean followsEquals(StringBuilder text) {
+        int i = text.length() - 1;
+        if (i >= 0 && text.charAt(i) == ' ') {
+            i--;
+        }
+        return i >= 0 && text.charAt(i) == '=';
+    }
+
+    private static boolean isDigit(char c) {
+        return '0' <= c && c <= '9';
+    }
+
+    private static boolean isIdentifierStart(char c) {
+        return Character.isLetter(c) || c == '_';
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+}
@@ -0,0 +1,333 @@
+package com.uphyca.stetho_realm;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Realm のファイルを読み取り専用で開き、ネイティブライブラリなしで読み出します。
+ * <p>
+ * 端末のファイルのサイズ情報({@link RealmPeerManager#getDatabaseFileStatuses})と、
+ * 端末から取り出したファイルを JVM 上で調べるため(テストのソースセットの {@code RealmFileDump})のものです。
+ * ファイル全体はマップせず、読む部分だけを {@link #PAGE_SIZE} ごとに読み込み、最近読んだページを
+ * {@link #MAX_CACHED_PAGES} 個まで保持します。サイズ情報だけならヘッダとトップ配列、freelist の配列しか読みません。
+ * 対応しているのは Realm Java 2.x 系(Realm Core 2.x、ファイルフォーマット 9 以前)の暗号化されていないファイルです。
+ * スレッドセーフではありません。
+ * <p>
+ * ファイルは次の構造です。
+ * <ul>
+ * <li>ヘッダ(24バイト): トップ ref 2つ、"T-DB"、ファイルフォーマットのバージョン、どちらのトップ ref が有効かのフラグ</li>
+ * <li>トップ配列: [0] テーブル名, [1] テーブルの ref, [2] 論理的なファイルサイズ, [3]-[5] 空き領域の位置・長さ・解放したバージョン,
+ * [6] 最後にコミットしたバージョン, ...</li>
+ * <li>テーブル: [0] spec (カラムの型・名前・属性), [1] カラムの ref</li>
+ * </ul>
+ */
+final class RealmFile implements Closeable {
+
+    private static final int PAGE_SHIFT = 16;
+    static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final long PAGE_MASK = PAGE_SIZE - 1;
+    static final int MAX_CACHED_PAGES = 256;
+
+    private static final int HEADER_SIZE = 24;
+    private static final long STREAMING_TOP_REF = 0xFFFFFFFFFFFFFFFFL;
+    private static final long STREAMING_FOOTER_COOKIE = 0x3034125237E526C8L;
+    /**
+     * Realm Core 6 からはテーブルの構造がまったく違う。
+     */
+    private static final int MAX_FILE_FORMAT_VERSION = 9;
+
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+    private final long length;
+    /**
+     * ページ番号 -> ページ。最後に読んだ順。
+     */
+    private final Map<Long, ByteBuffer> pages = new LinkedHashMap<Long, ByteBuffer>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, ByteBuffer> eldest) {
+            return size() > MAX_CACHED_PAGES;
+        }
+    };
+
+    private final int fileFormatVersion;
+    private final long tableNamesRef;
+    private final long tablesRef;
+    /**
+     * 最初に使われたときに読みます。
+     */
+    private List<String> tableNames;
+    private long[] tableRefs;
+    private final long logicalFileSize;
+    private final long freeSpaceSize;
+    private final long versions;
+
+    private RealmFile(File file) throws IOException {
+        this.file = file;
+        this.randomAccessFile = new RandomAccessFile(file, "r");
+        boolean opened = false;
+        try {
+            channel = randomAccessFile.getChannel();
+            length = channel.size();
+
+            if (length < HEADER_SIZE
+                    || getByte(16) != 'T' || getByte(17) != '-' || getByte(18) != 'D' || getByte(19) != 'B') {
+                throw new IOException(file.getName() + " is not a Realm file, or is encrypted");
+            }
+            final int select = getByte(23) & 1;
+            fileFormatVersion = getByte(20 + select) & 0xFF;
+            if (fileFormatVersion > MAX_FILE_FORMAT_VERSION) {
+                throw new IOException("unsupported file format version " + fileFormatVersion + ": " + file.getName());
+            }
+
+            long topRef = getLong(8L * select);
+            if (topRef == STREAMING_TOP_REF) {
+                // writeCopy などで書かれたファイルは末尾にトップ ref がある
+                if (length < HEADER_SIZE + 16 || getLong(length - 8) != STREAMING_FOOTER_COOKIE) {
+                    throw new IOException("broken streaming footer: " + file.getName());
+                }
+                topRef = getLong(length - 16);
+            }
+
+            if (topRef == 0) {
+                tableNamesRef = 0;
+                tablesRef = 0;
+                logicalFileSize = length;
+                freeSpaceSize = 0;
+                versions = 0;
+            } else {
+                final RealmFileArray top = RealmFileArray.at(this, topRef);
+                tableNamesRef = top.get(0);
+                tablesRef = top.get(1);
+                // コンパクションされたファイルには空き領域の記録がない
+                logicalFileSize = top.size > 2 ? top.get(2) >> 1 : length;
+                long free = 0;
+                if (top.size > 4 && top.get(4) != 0) {
+                    final RealmFileArray freeLengths = top.child(4);
+                    for (int i = 0; i < freeLengths.size; i++) {
+                        free += freeLengths.get(i);
+                    }
+                }
+                freeSpaceSize = free;
+                versions = countRetainedVersions(top);
+            }
+            opened = true;
+        } finally {
+            if (!opened) {
+                randomAccessFile.close();
+            }
+        }
+    }
+
+    /**
+     * 最後にコミットしたバージョンから、空き領域を再利用できずにいる最も古いバージョンまでの数を返します。
+     * <p>
+     * 解放された領域には解放したバージョンが記録され、それより古いバージョンを読んでいる読み手がいる間は
+     * 再利用されません(再利用できるようになると 0 になります)。読み手が保持しているバージョン自体は
+     * ロックファイルにしかないので、最後のコミットの時点での推定値です。
+     */
+    private static long countRetainedVersions(RealmFileArray top) {
+        if (top.size <= 6) {
+            return 1;
+        }
+        final long currentVersion = top.get(6) >> 1;
+        long oldestVersion = currentVersion;
+        if (top.get(5) != 0) {
+            final RealmFileArray freeVersions = top.child(5);
+            for (int i = 0; i < freeVersions.size; i++) {
+                final long version = freeVersions.get(i);
+                if (version != 0 && version < oldestVersion) {
+                    oldestVersion = version;
+                }
+            }
+        }
+        return currentVersion - oldestVersion + 1;
+    }
+
+    static RealmFile open(File file) throws IOException {
+        return new RealmFile(file);
+    }
+
+    String getName() {
+        return file.getName();
+    }
+
+    int getFileFormatVersion() {
+        return fileFormatVersion;
+    }
+
+    /**
+     * 最後にコミットされた時点で使われているファイルの大きさ。実際のファイルはこれより大きいことがあります。
+     */
+    long getLogicalFileSize() {
+        return logicalFileSize;
+    }
+
+    /**
+     * 空き領域(freelist)の合計。古いバージョンのために残されていて、まだ再利用できない領域も含みます。
+     */
+    long getFreeSpaceSize() {
+        return freeSpaceSize;
+    }
+
+    /**
+     * 保持されているバージョン数の推定値。空のファイルでは {@code 0}。
+     */
+    long getVersions() {
+        return versions;
+    }
+
+    List<String> getTableNames() {
+        loadTables();
+        return tableNames;
+    }
+
+    boolean hasTable(String name) {
+        return getTableNames().contains(name);
+    }
+
+    RealmFileTable getTable(String name) {
+        final int index = getTableNames().indexOf(name);
+        if (index < 0) {
+            throw new IllegalArgumentException("no such table: " + name);
+        }
+        return getTable(index);
+    }
+
+    RealmFileTable getTable(int index) {
+        loadTables();
+        return new RealmFileTable(this, tableNames.get(index), tableRefs[index]);
+    }
+
+    private void loadTables() {
+        if (tableNames != null) {
+            return;
+        }
+        if (tableNamesRef == 0) {
+            tableNames = Collections.emptyList();
+            tableRefs = new long[0];
+            return;
+        }
+        final RealmFileArray names = RealmFileArray.at(this, tableNamesRef);
+        final RealmFileArray tables = RealmFileArray.at(this, tablesRef);
+        final List<String> tableNames = new ArrayList<>(names.size);
+        for (int i = 0; i < names.size; i++) {
+            tableNames.add(names.getShortString(i, false));
+        }
+        tableRefs = new long[tables.size];
+        for (int i = 0; i < tables.size; i++) {
+            tableRefs[i] = tables.get(i);
+        }
+        this.tableNames = Collections.unmodifiableList(tableNames);
+    }
+
+    @Override
+    public void close() throws IOException {
+        pages.clear();
+        randomAccessFile.close();
+    }
+
+    long length() {
+        return length;
+    }
+
+    void checkBounds(long position, long size) {
+        if (position < 0 || size < 0 || position + size > length) {
+            throw new IllegalStateException("broken ref " + position + " (file size " + length + "): " + file.getName());
+        }
+    }
+
+    byte getByte(long position) {
+        checkBounds(position, 1);
+        return page(position >>> PAGE_SHIFT).get((int) (position & PAGE_MASK));
+    }
+
+    short getShort(long position) {
+        checkBounds(position, 2);
+        final int offset = (int) (position & PAGE_MASK);
+        if (offset <= PAGE_SIZE - 2) {
+            return page(position >>> PAGE_SHIFT).getShort(offset);
+        }
+        return (short) readLittleEndian(position, 2);
+    }
+
+    int getInt(long position) {
+        checkBounds(position, 4);
+        final int offset = (int) (position & PAGE_MASK);
+        if (offset <= PAGE_SIZE - 4) {
+            return page(position >>> PAGE_SHIFT).getInt(offset);
+        }
+        return (int) readLittleEndian(position, 4);
+    }
+
+    long getLong(long position) {
+        checkBounds(position, 8);
+        final int offset = (int) (position & PAGE_MASK);
+        if (offset <= PAGE_SIZE - 8) {
+            return page(position >>> PAGE_SHIFT).getLong(offset);
+        }
+        return readLittleEndian(position, 8);
+    }
+
+    /**
+     * ページの境界をまたぐ値を1バイトずつ読みます。
+     */
+    private long readLittleEndian(long position, int size) {
+        long value = 0;
+        for (int i = 0; i < size; i++) {
+            value |= (getByte(position + i) & 0xFFL) << (8 * i);
+        }
+        return value;
+    }
+
+    byte[] getBytes(long position, int size) {
+        checkBounds(position, size);
+        final byte[] bytes = new byte[size];
+        int copied = 0;
+        while (copied < size) {
+            final long current = position + copied;
+            final int offset = (int) (current & PAGE_MASK);
+            final int count = Math.min(size - copied, PAGE_SIZE - offset);
+            final ByteBuffer page = page(current >>> PAGE_SHIFT).duplicate();
+            page.position(offset);
+            page.get(bytes, copied, count);
+            copied += count;
+        }
+        return bytes;
+    }
+
+    /**
+     * ページを返します。保持していなければファイルから読み込みます。
+     */
+    private ByteBuffer page(long pageIndex) {
+        ByteBuffer page = pages.get(pageIndex);
+        if (page != null) {
+            return page;
+        }
+        final long position = pageIndex << PAGE_SHIFT;
+        page = ByteBuffer.allocate((int) Math.min(PAGE_SIZE, length - position));
+        try {
+            while (page.hasRemaining()) {
+                if (channel.read(page, position + page.position()) < 0) {
+                    throw new IllegalStateException("unexpected end of file at " + (position + page.position()) + ": " + file.getName());
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot read " + file.getName() + " at " + position, e);
+        }
+        page.clear();
+        page.order(ByteOrder.LITTLE_ENDIAN);
+        pages.put(pageIndex, page);
+        return page;
+    }
+}
@@ -0,0 +1,260 @@
+package com.uphyca.stetho_realm;
+
+import java.nio.charset.Charset;
+
+import javax.annotation.Nullable;
+
+/**
+ * {@link RealmFile} 上の配列(Realm のファイルを構成するノード)を読み出します。
+ * <p>
+ * 配列は8バイトのヘッダと要素からなります。ヘッダの内容は次のとおりです。
+ * <ul>
+ * <li>[4] bit 7: B+tree の内部ノード, bit 6: 要素が ref, bit 5: 種類ごとのフラグ,
+ * bit 3-4: 幅の解釈, bit 0-2: 幅 ({@code (1 << n) >> 1})</li>
+ * <li>[5]-[7] 要素数 (ビッグエンディアン)</li>
+ * </ul>
+ * 幅が 1, 2, 4 ビットの要素は符号なし、8 ビット以上は符号付きのリトルエンディアンです。
+ * ref は偶数で、奇数の要素は {@code value >> 1} を表すタグ付きの整数です。
+ */
+final class RealmFileArray {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int HEADER_SIZE = 8;
+
+    private static final int FLAG_INNER_BPTREE_NODE = 0x80;
+    private static final int FLAG_HAS_REFS = 0x40;
+    private static final int FLAG_CONTEXT = 0x20;
+
+    /**
+     * 幅がバイト数を表す(float, double, 短い文字列)。
+     */
+    private static final int WIDTH_TYPE_MULTIPLY = 1;
+
+    private static final long FLOAT_NULL_BITS = 0x7fc000aaL;
+    private static final long DOUBLE_NULL_BITS = 0x7ff80000000000aaL;
+
+    final RealmFile file;
+    final long ref;
+    final boolean innerNode;
+    final boolean hasRefs;
+    final boolean context;
+    final int width;
+    final boolean multiply;
+    final int size;
+    private final long data;
+
+    private RealmFileArray(RealmFile file, long ref) {
+        if (ref == 0 || (ref & 1) != 0) {
+            throw new IllegalStateException("broken ref " + ref + ": " + file.getName());
+        }
+        file.checkBounds(ref, HEADER_SIZE);
+        final int flags = file.getByte(ref + 4) & 0xFF;
+        this.file = file;
+        this.ref = ref;
+        this.innerNode = (flags & FLAG_INNER_BPTREE_NODE) != 0;
+        this.hasRefs = (flags & FLAG_HAS_REFS) != 0;
+        this.context = (flags & FLAG_CONTEXT) != 0;
+        this.multiply = ((flags & 0x18) >> 3) == WIDTH_TYPE_MULTIPLY;
+        this.width = (1 << (flags & 0x07)) >> 1;
+        this.size = ((file.getByte(ref + 5) & 0xFF) << 16)
+                | ((file.getByte(ref + 6) & 0xFF) << 8)
+                | (file.getByte(ref + 7) & 0xFF);
+        this.data = ref + HEADER_SIZE;
+    }
+
+    static RealmFileArray at(RealmFile file, long ref) {
+        return new RealmFileArray(file, ref);
+    }
+
+    static boolean isTagged(long value) {
+        return (value & 1) != 0;
+    }
+
+    RealmFileArray child(int index) {
+        return at(file, get(index));
+    }
+
+    long get(int index) {
+        checkIndex(index);
+        switch (width) {
+            case 0:
+                return 0;
+            case 1:
+            case 2:
+            case 4: {
+                final long bit = (long) index * width;
+                final int b = file.getByte(data + (bit >>> 3)) & 0xFF;
+                return (b >>> (bit & 7)) & ((1 << width) - 1);
+            }
+            case 8:
+                return file.getByte(data + index);
+            case 16:
+                return file.getShort(data + 2L * index);
+            case 32:
+                return file.getInt(data + 4L * index);
+            case 64:
+                return file.getLong(data + 8L * index);
+            default:
+                throw new IllegalStateException("broken array width " + width + " at " + ref + ": " + file.getName());
+        }
+    }
+
+    float getFloat(int index) {
+        checkIndex(index);
+        return width == 0 ? 0f : Float.intBitsToFloat(file.getInt(data + 4L * index));
+    }
+
+    double getDouble(int index) {
+        checkIndex(index);
+        return width == 0 ? 0d : Double.longBitsToDouble(file.getLong(data + 8L * index));
+    }
+
+    boolean isNullFloat(int index) {
+        checkIndex(index);
+        return width != 0 && (file.getInt(data + 4L * index) & 0xFFFFFFFFL) == FLOAT_NULL_BITS;
+    }
+
+    boolean isNullDouble(int index) {
+        checkIndex(index);
+        return width != 0 && file.getLong(data + 8L * index) == DOUBLE_NULL_BITS;
+    }
+
+    /**
+     * 短い文字列の配列(要素が ref でないもの)の要素を返します。
+     * 各要素は幅いっぱいの領域に格納され、最後のバイトが {@code 幅 - 1 - 長さ} です。
+     * 最後のバイトが幅と等しいものは null です。
+     */
+    @Nullable
+    String getShortString(int index, boolean nullable) {
+        checkIndex(index);
+        if (width == 0) {
+            return nullable ? null : "";
+        }
+        final long slot = data + (long) index * width;
+        final int padding = file.getByte(slot + width - 1) & 0xFF;
+        if (padding == width) {
+            return nullable ? null : "";
+        }
+        return new String(file.getBytes(slot, width - 1 - padding), UTF_8);
+    }
+
+    /**
+     * バイト列の配列(幅の解釈が ignore のもの)の {@code [begin, end)} を返します。
+     */
+    byte[] getBlob(long begin, long end) {
+        if (begin < 0 || end < begin || end > size) {
+            throw new IllegalStateException("broken blob range at " + ref + ": " + file.getName());
+        }
+        return file.getBytes(data + begin, (int) (end - begin));
+    }
+
+    /**
+     * B+tree のルートとして見た場合の要素数を返します。
+     *
+     * @param leafSize 葉の要素数の求め方。
+     */
+    long treeSize(LeafSize leafSize) {
+        if (innerNode) {
+            return get(size - 1) >> 1;
+        }
+        return leafSize.of(this);
+    }
+
+    /**
+     * B+tree をたどり、{@code index} 番目の要素を含む葉を探します。
+     *
+     * @return 葉と、葉の中でのインデックス。
+     */
+    Leaf findLeaf(long index) {
+        RealmFileArray node = this;
+        long remaining = index;
+        while (node.innerNode) {
+            final long offsets = node.get(0);
+            int childIndex;
+            if (isTagged(offsets)) {
+                // 最後の子以外は、どれも同じ要素数を持つ
+                final long elementsPerChild = offsets >> 1;
+                childIndex = (int) (remaining / elementsPerChild);
+                remaining = remaining % elementsPerChild;
+            } else {
+                // 子ごとの累積の要素数
+                final RealmFileArray cumulative = at(file, offsets);
+                childIndex = upperBound(cumulative, remaining);
+                if (childIndex > 0) {
+                    remaining -= cumulative.get(childIndex - 1);
+                }
+            }
+            if (childIndex >= node.size - 2) {
+                throw new IndexOutOfBoundsException("index " + index + " out of range at " + ref + ": " + file.getName());
+            }
+            node = node.child(childIndex + 1);
+        }
+        return new Leaf(node, (int) remaining);
+    }
+
+    private static int upperBound(RealmFileArray array, long value) {
+        int low = 0;
+        int high = array.size;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (array.get(mid) <= value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + " (size " + size + ") at " + ref + ": " + file.getName());
+        }
+    }
+
+    static final class Leaf {
+        final RealmFileArray array;
+        final int index;
+
+        Leaf(RealmFileArray array, int index) {
+            this.array = array;
+            this.index = index;
+        }
+    }
+
+    /**
+     * 葉の種類ごとの要素数の求め方。
+     */
+    enum LeafSize {
+        PLAIN {
+            @Override
+            long of(RealmFileArray leaf) {
+                return leaf.size;
+            }
+        },
+        /**
+         * 先頭の要素が null を表す値の、null を持てる整数の配列。
+         */
+        INT_NULL {
+            @Override
+            long of(RealmFileArray leaf) {
+                return leaf.size - 1;
+            }
+        },
+        /**
+         * 文字列、バイナリ。長い要素の配列は [オフセット, データ, null] の組です。
+         */
+        BLOBS {
+            @Override
+            long of(RealmFileArray leaf) {
+                if (!leaf.hasRefs || leaf.context) {
+                    return leaf.size;
+                }
+                return leaf.child(0).size;
+            }
+        };
+
+        abstract long of(RealmFileArray leaf);
+    }
+}
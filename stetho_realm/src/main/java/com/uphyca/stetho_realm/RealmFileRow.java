@@ -0,0 +1,91 @@
+package com.uphyca.stetho_realm;
+
+import java.util.Date;
+
+import javax.annotation.Nullable;
+
+/**
+ * {@link RealmFileTable} の行です。
+ */
+final class RealmFileRow implements RowAccessor {
+
+    private final RealmFileTable table;
+    private final long index;
+
+    RealmFileRow(RealmFileTable table, long index) {
+        this.table = table;
+        this.index = index;
+    }
+
+    @Override
+    public long getIndex() {
+        return index;
+    }
+
+    @Override
+    public Database.StethoRealmFieldType getColumnType(long columnIndex) {
+        return table.getColumnType(columnIndex);
+    }
+
+    @Override
+    public boolean isNull(long columnIndex) {
+        return table.isNull(columnIndex, index);
+    }
+
+    @Override
+    public boolean isNullLink(long columnIndex) {
+        return table.isNullLink(columnIndex, index);
+    }
+
+    @Override
+    public long getLong(long columnIndex) {
+        return table.getLong(columnIndex, index);
+    }
+
+    @Override
+    public boolean getBoolean(long columnIndex) {
+        return table.getBoolean(columnIndex, index);
+    }
+
+    @Override
+    public float getFloat(long columnIndex) {
+        return table.getFloat(columnIndex, index);
+    }
+
+    @Override
+    public double getDouble(long columnIndex) {
+        return table.getDouble(columnIndex, index);
+    }
+
+    @Override
+    public Date getDate(long columnIndex) {
+        return table.getDate(columnIndex, index);
+    }
+
+    @Override
+    @Nullable
+    public String getString(long columnIndex) {
+        return table.getString(columnIndex, index);
+    }
+
+    @Override
+    @Nullable
+    public byte[] getBinaryByteArray(long columnIndex) {
+        return table.getBinaryByteArray(columnIndex, index);
+    }
+
+    @Override
+    public long getLink(long columnIndex) {
+        return table.getLink(columnIndex, index);
+    }
+
+    @Override
+    public String getLinkListTargetName(long columnIndex) {
+        return table.getLinkTarget(columnIndex).getName();
+    }
+
+    @Override
+    public long[] getLinkListTargets(long columnIndex) {
+        return table.getLinkList(columnIndex, index);
+    }
+}
@@ -0,0 +1,458 @@
+package com.uphyca.stetho_realm;
+
+import java.nio.charset.Charset;
+import java.util.Date;
+
+import javax.annotation.Nullable;
+
+/**
+ * {@link RealmFile} 上のテーブルです。io.realm.internal.Table の読み出しに使う部分と同じ名前のメソッドを持ちます。
+ * <p>
+ * テーブルは [spec, カラムの ref の配列] で、spec は [型, 名前, 属性, サブspec, 列挙型文字列のキー] です。
+ * カラムの ref の配列には、検索インデックスを持つカラムの直後にそのインデックスの ref が入っています。
+ * 名前を持つのは公開されているカラムだけで、バックリンクのカラムは末尾に隠れています。
+ */
+final class RealmFileTable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final String PRIMARY_KEY_TABLE_NAME = "pk";
+    private static final String PRIMARY_KEY_CLASS_COLUMN_NAME = "pk_table";
+    private static final String PRIMARY_KEY_FIELD_COLUMN_NAME = "pk_property";
+    private static final String CLASS_PREFIX = "class_";
+
+    // Realm Core のカラムの型
+    private static final int COL_TYPE_INT = 0;
+    private static final int COL_TYPE_BOOL = 1;
+    private static final int COL_TYPE_STRING = 2;
+    private static final int COL_TYPE_STRING_ENUM = 3;
+    private static final int COL_TYPE_BINARY = 4;
+    private static final int COL_TYPE_TABLE = 5;
+    private static final int COL_TYPE_MIXED = 6;
+    private static final int COL_TYPE_OLD_DATE_TIME = 7;
+    private static final int COL_TYPE_TIMESTAMP = 8;
+    private static final int COL_TYPE_FLOAT = 9;
+    private static final int COL_TYPE_DOUBLE = 10;
+    private static final int COL_TYPE_LINK = 12;
+    private static final int COL_TYPE_LINK_LIST = 13;
+    private static final int COL_TYPE_BACKLINK = 14;
+
+    private static final int COL_ATTR_INDEXED = 1;
+    private static final int COL_ATTR_NULLABLE = 16;
+
+    private static final long NO_PRIMARY_KEY = -1;
+    private static final long PRIMARY_KEY_UNKNOWN = -2;
+
+    private final RealmFile file;
+    private final String name;
+
+    private final int[] types;
+    private final int[] attributes;
+    private final String[] columnNames;
+    private final long[] columnRefs;
+    /**
+     * LINK, LIST のリンク先のテーブルのインデックス。それ以外は {@code -1}。
+     */
+    private final int[] linkTargets;
+    /**
+     * 列挙型文字列のカラムのキー(文字列のカラム)の ref。それ以外は {@code 0}。
+     */
+    private final long[] enumKeyRefs;
+    private final long size;
+
+    private long primaryKey = PRIMARY_KEY_UNKNOWN;
+
+    RealmFileTable(RealmFile file, String name, long ref) {
+        this.file = file;
+        this.name = name;
+
+        final RealmFileArray top = RealmFileArray.at(file, ref);
+        final RealmFileArray spec = top.child(0);
+        final RealmFileArray typeArray = spec.child(0);
+        final RealmFileArray nameArray = spec.child(1);
+        final RealmFileArray attributeArray = spec.child(2);
+        final RealmFileArray subspecs = spec.size > 3 && spec.get(3) != 0 ? spec.child(3) : null;
+        final RealmFileArray enumKeys = spec.size > 4 && spec.get(4) != 0 ? spec.child(4) : null;
+        final RealmFileArray columns = top.child(1);
+
+        final int columnCount = typeArray.size;
+        types = new int[columnCount];
+        attributes = new int[columnCount];
+        columnRefs = new long[columnCount];
+        linkTargets = new int[columnCount];
+        enumKeyRefs = new long[columnCount];
+        columnNames = new String[nameArray.size];
+        for (int i = 0; i < columnNames.length; i++) {
+            columnNames[i] = nameArray.getShortString(i, false);
+        }
+
+        int columnPosition = 0;
+        int subspecPosition = 0;
+        int enumKeyPosition = 0;
+        for (int i = 0; i < columnCount; i++) {
+            types[i] = (int) typeArray.get(i);
+            attributes[i] = (int) attributeArray.get(i);
+            columnRefs[i] = columns.get(columnPosition++);
+            if ((attributes[i] & COL_ATTR_INDEXED) != 0) {
+                columnPosition++;
+            }
+            linkTargets[i] = -1;
+            switch (types[i]) {
+                case COL_TYPE_LINK:
+                case COL_TYPE_LINK_LIST:
+                    linkTargets[i] = (int) (subspecs.get(subspecPosition++) >> 1);
+                    break;
+                case COL_TYPE_TABLE:
+                    subspecPosition++;
+                    break;
+                case COL_TYPE_BACKLINK:
+                    // リンク元のテーブルとカラム
+                    subspecPosition += 2;
+                    break;
+                case COL_TYPE_STRING_ENUM:
+                    enumKeyRefs[i] = enumKeys.get(enumKeyPosition++);
+                    break;
+                default:
+                    break;
+            }
+        }
+        size = columnCount == 0 ? 0 : columnSize(0);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    long getColumnCount() {
+        return columnNames.length;
+    }
+
+    String getColumnName(long columnIndex) {
+        return columnNames[(int) columnIndex];
+    }
+
+    /**
+     * @return 存在しない場合は {@code -1}。
+     */
+    long getColumnIndex(String columnName) {
+        for (int i = 0; i < columnNames.length; i++) {
+            if (columnNames[i].equals(columnName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    Database.StethoRealmFieldType getColumnType(long columnIndex) {
+        switch (types[checkColumn(columnIndex)]) {
+            case COL_TYPE_INT:
+                return Database.StethoRealmFieldType.INTEGER;
+            case COL_TYPE_BOOL:
+                return Database.StethoRealmFieldType.BOOLEAN;
+            case COL_TYPE_STRING:
+            case COL_TYPE_STRING_ENUM:
+                return Database.StethoRealmFieldType.STRING;
+            case COL_TYPE_BINARY:
+                return Database.StethoRealmFieldType.BINARY;
+            case COL_TYPE_TABLE:
+                return Database.StethoRealmFieldType.UNSUPPORTED_TABLE;
+            case COL_TYPE_MIXED:
+                return Database.StethoRealmFieldType.UNSUPPORTED_MIXED;
+            case COL_TYPE_OLD_DATE_TIME:
+                return Database.StethoRealmFieldType.OLD_DATE;
+            case COL_TYPE_TIMESTAMP:
+                return Database.StethoRealmFieldType.DATE;
+            case COL_TYPE_FLOAT:
+                return Database.StethoRealmFieldType.FLOAT;
+            case COL_TYPE_DOUBLE:
+                return Database.StethoRealmFieldType.DOUBLE;
+            case COL_TYPE_LINK:
+                return Database.StethoRealmFieldType.OBJECT;
+            case COL_TYPE_LINK_LIST:
+                return Database.StethoRealmFieldType.LIST;
+            default:
+                return Database.StethoRealmFieldType.UNKNOWN;
+        }
+    }
+
+    boolean isColumnNullable(long columnIndex) {
+        return (attributes[checkColumn(columnIndex)] & COL_ATTR_NULLABLE) != 0;
+    }
+
+    boolean hasSearchIndex(long columnIndex) {
+        return (attributes[checkColumn(columnIndex)] & COL_ATTR_INDEXED) != 0;
+    }
+
+    long size() {
+        return size;
+    }
+
+    RealmFileTable getLinkTarget(long columnIndex) {
+        final int target = linkTargets[checkColumn(columnIndex)];
+        if (target < 0) {
+            throw new IllegalArgumentException("not a link column: " + getColumnName(columnIndex));
+        }
+        return file.getTable(target);
+    }
+
+    boolean hasPrimaryKey() {
+        return getPrimaryKey() >= 0;
+    }
+
+    /**
+     * 主キーのカラムを、{@value #PRIMARY_KEY_TABLE_NAME} テーブルから探して返します。
+     * クラス名は {@value #CLASS_PREFIX} を付けたものと付けないもののどちらでも記録されていることがあります。
+     *
+     * @return 主キーがない場合は {@code -1}。
+     */
+    long getPrimaryKey() {
+        if (primaryKey != PRIMARY_KEY_UNKNOWN) {
+            return primaryKey;
+        }
+        primaryKey = NO_PRIMARY_KEY;
+        if (!file.hasTable(PRIMARY_KEY_TABLE_NAME) || name.equals(PRIMARY_KEY_TABLE_NAME)) {
+            return primaryKey;
+        }
+        final RealmFileTable pkTable = file.getTable(PRIMARY_KEY_TABLE_NAME);
+        final long classColumn = pkTable.getColumnIndex(PRIMARY_KEY_CLASS_COLUMN_NAME);
+        final long fieldColumn = pkTable.getColumnIndex(PRIMARY_KEY_FIELD_COLUMN_NAME);
+        if (classColumn < 0 || fieldColumn < 0) {
+            return primaryKey;
+        }
+        final String className = name.startsWith(CLASS_PREFIX) ? name.substring(CLASS_PREFIX.length()) : name;
+        for (long row = 0; row < pkTable.size(); row++) {
+            final String recorded = pkTable.getString(classColumn, row);
+            if (!name.equals(recorded) && !className.equals(recorded)) {
+                continue;
+            }
+            if (pkTable.getColumnType(fieldColumn) == Database.StethoRealmFieldType.STRING) {
+                primaryKey = getColumnIndex(pkTable.getString(fieldColumn, row));
+            } else {
+                // 古いファイルはカラムのインデックスを記録している
+                primaryKey = pkTable.getLong(fieldColumn, row);
+            }
+            break;
+        }
+        return primaryKey;
+    }
+
+    /**
+     * io.realm.internal.Table#getCheckedRow(long) と同じく、範囲外のインデックスは例外になります。
+     */
+    RealmFileRow getCheckedRow(long rowIndex) {
+        if (rowIndex < 0 || rowIndex >= size) {
+            throw new IndexOutOfBoundsException("row index " + rowIndex + " (size " + size + "): " + name);
+        }
+        return new RealmFileRow(this, rowIndex);
+    }
+
+    boolean isNull(long columnIndex, long rowIndex) {
+        final int column = checkColumn(columnIndex);
+        switch (types[column]) {
+            case COL_TYPE_INT:
+            case COL_TYPE_BOOL:
+            case COL_TYPE_OLD_DATE_TIME:
+                return isNullable(column) && isNullInt(columnRoot(column), rowIndex);
+            case COL_TYPE_TIMESTAMP:
+                return isNullInt(columnRoot(column).child(0), rowIndex);
+            case COL_TYPE_FLOAT: {
+                final RealmFileArray.Leaf leaf = columnRoot(column).findLeaf(rowIndex);
+                return isNullable(column) && leaf.array.isNullFloat(leaf.index);
+            }
+            case COL_TYPE_DOUBLE: {
+                final RealmFileArray.Leaf leaf = columnRoot(column).findLeaf(rowIndex);
+                return isNullable(column) && leaf.array.isNullDouble(leaf.index);
+            }
+            case COL_TYPE_STRING:
+            case COL_TYPE_STRING_ENUM:
+                return getString(columnIndex, rowIndex) == null;
+            case COL_TYPE_BINARY:
+                return getBinaryByteArray(columnIndex, rowIndex) == null;
+            case COL_TYPE_LINK:
+                return isNullLink(columnIndex, rowIndex);
+            default:
+                return false;
+        }
+    }
+
+    boolean isNullLink(long columnIndex, long rowIndex) {
+        return getIntValue(checkColumn(columnIndex), rowIndex) == 0;
+    }
+
+    long getLong(long columnIndex, long rowIndex) {
+        final int column = checkColumn(columnIndex);
+        if (isNullable(column)) {
+            return getNullableInt(columnRoot(column), rowIndex);
+        }
+        return getIntValue(column, rowIndex);
+    }
+
+    boolean getBoolean(long columnIndex, long rowIndex) {
+        return getLong(columnIndex, rowIndex) != 0;
+    }
+
+    float getFloat(long columnIndex, long rowIndex) {
+        final RealmFileArray.Leaf leaf = columnRoot(checkColumn(columnIndex)).findLeaf(rowIndex);
+        return leaf.array.getFloat(leaf.index);
+    }
+
+    double getDouble(long columnIndex, long rowIndex) {
+        final RealmFileArray.Leaf leaf = columnRoot(checkColumn(columnIndex)).findLeaf(rowIndex);
+        return leaf.array.getDouble(leaf.index);
+    }
+
+    /**
+     * TIMESTAMP は [秒, ナノ秒] の2つのカラム、OLD_DATE は秒の整数です。
+     */
+    Date getDate(long columnIndex, long rowIndex) {
+        final int column = checkColumn(columnIndex);
+        if (types[column] == COL_TYPE_OLD_DATE_TIME) {
+            return new Date(getLong(columnIndex, rowIndex) * 1000);
+        }
+        final RealmFileArray top = columnRoot(column);
+        final long seconds = getNullableInt(top.child(0), rowIndex);
+        final RealmFileArray.Leaf nanos = top.child(1).findLeaf(rowIndex);
+        return new Date(seconds * 1000 + nanos.array.get(nanos.index) / 1000000);
+    }
+
+    @Nullable
+    String getString(long columnIndex, long rowIndex) {
+        final int column = checkColumn(columnIndex);
+        if (types[column] == COL_TYPE_STRING_ENUM) {
+            final long key = getIntValue(column, rowIndex);
+            return getString(RealmFileArray.at(file, enumKeyRefs[column]), key, isNullable(column));
+        }
+        return getString(columnRoot(column), rowIndex, isNullable(column));
+    }
+
+    @Nullable
+    byte[] getBinaryByteArray(long columnIndex, long rowIndex) {
+        final RealmFileArray.Leaf leaf = columnRoot(checkColumn(columnIndex)).findLeaf(rowIndex);
+        final RealmFileArray array = leaf.array;
+        if (array.context) {
+            return getBigBlob(array, leaf.index, false);
+        }
+        // [オフセット, データ, null(1 が null)]
+        if (array.size > 2 && array.child(2).get(leaf.index) != 0) {
+            return null;
+        }
+        return getOffsetBlob(array, leaf.index, false);
+    }
+
+    /**
+     * @return リンク先の行インデックス。
+     */
+    long getLink(long columnIndex, long rowIndex) {
+        return getIntValue(checkColumn(columnIndex), rowIndex) - 1;
+    }
+
+    /**
+     * @return リンク先の行インデックスの並び。
+     */
+    long[] getLinkList(long columnIndex, long rowIndex) {
+        final long ref = getIntValue(checkColumn(columnIndex), rowIndex);
+        if (ref == 0) {
+            return new long[0];
+        }
+        final RealmFileArray root = RealmFileArray.at(file, ref);
+        final long[] targets = new long[(int) root.treeSize(RealmFileArray.LeafSize.PLAIN)];
+        for (int i = 0; i < targets.length; i++) {
+            final RealmFileArray.Leaf leaf = root.findLeaf(i);
+            targets[i] = leaf.array.get(leaf.index);
+        }
+        return targets;
+    }
+
+    private RealmFileArray columnRoot(int column) {
+        return RealmFileArray.at(file, columnRefs[column]);
+    }
+
+    private boolean isNullable(int column) {
+        return (attributes[column] & COL_ATTR_NULLABLE) != 0;
+    }
+
+    private long columnSize(int column) {
+        final RealmFileArray root = columnRoot(column);
+        switch (types[column]) {
+            case COL_TYPE_INT:
+            case COL_TYPE_BOOL:
+            case COL_TYPE_OLD_DATE_TIME:
+                return root.treeSize(isNullable(column) ? RealmFileArray.LeafSize.INT_NULL : RealmFileArray.LeafSize.PLAIN);
+            case COL_TYPE_TIMESTAMP:
+                return root.child(0).treeSize(RealmFileArray.LeafSize.INT_NULL);
+            case COL_TYPE_STRING:
+            case COL_TYPE_BINARY:
+                return root.treeSize(RealmFileArray.LeafSize.BLOBS);
+            default:
+                return root.treeSize(RealmFileArray.LeafSize.PLAIN);
+        }
+    }
+
+    private long getIntValue(int column, long rowIndex) {
+        final RealmFileArray.Leaf leaf = columnRoot(column).findLeaf(rowIndex);
+        return leaf.array.get(leaf.index);
+    }
+
+    /**
+     * null を持てる整数の葉は、先頭の要素が null を表す値です。
+     */
+    private static boolean isNullInt(RealmFileArray root, long rowIndex) {
+        final RealmFileArray.Leaf leaf = root.findLeaf(rowIndex);
+        return leaf.array.get(leaf.index + 1) == leaf.array.get(0);
+    }
+
+    private static long getNullableInt(RealmFileArray root, long rowIndex) {
+        final RealmFileArray.Leaf leaf = root.findLeaf(rowIndex);
+        return leaf.array.get(leaf.index + 1);
+    }
+
+    /**
+     * 文字列の葉は、要素が ref でなければ短い文字列、ref で種類ごとのフラグがなければ
+     * [オフセット, データ, null(0 が null)]、フラグがあれば要素ごとのデータへの ref です。
+     */
+    @Nullable
+    private static String getString(RealmFileArray root, long rowIndex, boolean nullable) {
+        final RealmFileArray.Leaf leaf = root.findLeaf(rowIndex);
+        final RealmFileArray array = leaf.array;
+        final byte[] bytes;
+        if (!array.hasRefs) {
+            return array.getShortString(leaf.index, nullable);
+        } else if (array.context) {
+            bytes = getBigBlob(array, leaf.index, true);
+        } else if (nullable && array.size > 2 && array.child(2).get(leaf.index) == 0) {
+            bytes = null;
+        } else {
+            bytes = getOffsetBlob(array, leaf.index, true);
+        }
+        if (bytes == null) {
+            return nullable ? null : "";
+        }
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * @param terminated 末尾に 0 が付いている(文字列)かどうか。
+     */
+    private static byte[] getOffsetBlob(RealmFileArray array, int index, boolean terminated) {
+        final RealmFileArray offsets = array.child(0);
+        final long begin = index == 0 ? 0 : offsets.get(index - 1);
+        final long end = offsets.get(index);
+        return array.child(1).getBlob(begin, terminated ? end - 1 : end);
+    }
+
+    @Nullable
+    private static byte[] getBigBlob(RealmFileArray array, int index, boolean terminated) {
+        if (array.get(index) == 0) {
+            return null;
+        }
+        final RealmFileArray blob = array.child(index);
+        return blob.getBlob(0, terminated ? blob.size - 1 : blob.size);
+    }
+
+    private int checkColumn(long columnIndex) {
+        if (columnIndex < 0 || columnIndex >= types.length) {
+            throw new IndexOutOfBoundsException("column index " + columnIndex + ": " + name);
+        }
+        return (int) columnIndex;
+    }
+}
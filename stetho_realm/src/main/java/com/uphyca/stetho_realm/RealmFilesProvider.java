@@ -5,22 +5,50 @@ import com.facebook.stetho.inspector.database.DatabaseFilesProvider;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.regex.Pattern;
 
 
+/**
+ * フォルダ内のデータベースファイルの一覧を返します。
+ * <p>
+ * 一覧はフォルダの更新時刻が変わるか {@link #SNAPSHOT_TTL_MILLIS} が経過するまで使い回すので、
+ * 複数の DevTools が同時に接続しても走査は1回で済みます。
+ */
 public class RealmFilesProvider implements DatabaseFilesProvider {
+    private static final long SNAPSHOT_TTL_MILLIS = 2000L;
+
     private final File folder;
     private final Pattern databaseNamePattern;
 
+    // guarded by this
+    private List<File> snapshot;
+    private long snapshotFolderModified;
+    private long snapshotTakenAt;
+
     public RealmFilesProvider(File folder, Pattern databaseNamePattern) {
         this.folder = folder;
         this.databaseNamePattern = databaseNamePattern;
     }
 
     @Override
-    public List<File> getDatabaseFiles() {
+    public synchronized List<File> getDatabaseFiles() {
+        final long folderModified = folder.lastModified();
+        final long now = System.currentTimeMillis();
+        if (snapshot != null
+                && folderModified == snapshotFolderModified
+                && now - snapshotTakenAt < SNAPSHOT_TTL_MILLIS) {
+            return snapshot;
+        }
+
+        snapshot = Collections.unmodifiableList(scanDatabaseFiles());
+        snapshotFolderModified = folderModified;
+        snapshotTakenAt = now;
+        return snapshot;
+    }
 
+    private List<File> scanDatabaseFiles() {
         final File baseDir = folder;
         final String[] realmFiles = baseDir.list(new FilenameFilter() {
             @Override
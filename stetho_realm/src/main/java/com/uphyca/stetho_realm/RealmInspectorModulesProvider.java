@@ -39,6 +39,8 @@ public class RealmInspectorModulesProvider implements InspectorModulesProvider {
     private static final Pattern DEFAULT_DATABASE_NAME_PATTERN = Pattern.compile(".+\\.realm");
 
     private static final long DEFAULT_LIMIT = 250L;
+    private static final long DEFAULT_BYTE_LIMIT = 2L * 1024L * 1024L;
+    static final int DEFAULT_STRING_PREFIX_LENGTH = 1024;
     private static final boolean DEFAULT_ASCENDING_ORDER = true;
 
     private static final int ENCRYPTION_KEY_LENGTH = 64;
@@ -61,7 +63,7 @@ public class RealmInspectorModulesProvider implements InspectorModulesProvider {
             InspectorModulesProvider provider,
             boolean withMetaTables,
             Pattern databaseNamePattern) {
-        return new RealmInspectorModulesProvider(context.getPackageName(), provider, context.getFilesDir(), withMetaTables, databaseNamePattern, DEFAULT_LIMIT, DEFAULT_ASCENDING_ORDER, null, null);
+        return new RealmInspectorModulesProvider(context.getPackageName(), provider, context.getFilesDir(), withMetaTables, databaseNamePattern, DEFAULT_LIMIT, DEFAULT_BYTE_LIMIT, DEFAULT_STRING_PREFIX_LENGTH, false, false, DEFAULT_ASCENDING_ORDER, null, null);
     }
 
     private final String packageName;
@@ -70,6 +72,10 @@ public class RealmInspectorModulesProvider implements InspectorModulesProvider {
     private final boolean withMetaTables;
     private final Pattern databaseNamePattern;
     private final long limit;
+    private final long byteLimit;
+    private final int stringPrefixLength;
+    private final boolean compactValueEncoding;
+    private final boolean iso8601Dates;
     private final boolean ascendingOrder;
     private byte[] defaultEncryptionKey;
     private Map<String, byte[]> encryptionKeys;
@@ -80,6 +86,10 @@ public class RealmInspectorModulesProvider implements InspectorModulesProvider {
             boolean withMetaTables,
             Pattern databaseNamePattern,
             long limit,
+            long byteLimit,
+            int stringPrefixLength,
+            boolean compactValueEncoding,
+            boolean iso8601Dates,
             boolean ascendingOrder,
             byte[] defaultEncryptionKey,
             Map<String, byte[]> encryptionKeys) {
@@ -93,6 +103,10 @@ public class RealmInspectorModulesProvider implements InspectorModulesProvider {
             this.databaseNamePattern = databaseNamePattern;
         }
         this.limit = limit;
+        this.byteLimit = byteLimit;
+        this.stringPrefixLength = stringPrefixLength;
+        this.compactValueEncoding = compactValueEncoding;
+        this.iso8601Dates = iso8601Dates;
         this.ascendingOrder = ascendingOrder;
         this.defaultEncryptionKey = defaultEncryptionKey;
         this.encryptionKeys = encryptionKeys == null ? Collections.<String, byte[]>emptyMap() : encryptionKeys;
@@ -114,6 +128,10 @@ public class RealmInspectorModulesProvider implements InspectorModulesProvider {
                 new RealmFilesProvider(folder, databaseNamePattern),
                 withMetaTables,
                 limit,
+                byteLimit,
+                stringPrefixLength,
+                compactValueEncoding,
+                iso8601Dates,
                 ascendingOrder,
                 defaultEncryptionKey,
                 encryptionKeys);
@@ -134,6 +152,10 @@ public class RealmInspectorModulesProvider implements InspectorModulesProvider {
 
         private File folder;
         private long limit = DEFAULT_LIMIT;
+        private long byteLimit = DEFAULT_BYTE_LIMIT;
+        private int stringPrefixLength = DEFAULT_STRING_PREFIX_LENGTH;
+        private boolean compactValueEncoding;
+        private boolean iso8601Dates;
         private boolean ascendingOrder = DEFAULT_ASCENDING_ORDER;
         private byte[] defaultEncryptionKey;
         private Map<String, byte[]> encryptionKeys;
@@ -158,6 +180,49 @@ public class RealmInspectorModulesProvider implements InspectorModulesProvider {
             return this;
         }
 
+        /**
+         * 1回のレスポンスで返すデータのおおよその最大バイト数を指定します。
+         * 行数が {@link #withLimit(long)} に満たなくても、このバイト数に達した時点で打ち切ります。
+         */
+        public ProviderBuilder withByteLimit(long byteLimit) {
+            if (byteLimit <= 0) {
+                throw new IllegalArgumentException("byteLimit must be positive: " + byteLimit);
+            }
+            this.byteLimit = byteLimit;
+            return this;
+        }
+
+        /**
+         * 文字列を切り詰めずに返す最大文字数を指定します。バイナリにはバイト数として適用します。
+         * これより長い文字列やバイナリは先頭部分のみを返し、元の文字数(バイト数)を付記します。
+         */
+        public ProviderBuilder withStringPrefixLength(int stringPrefixLength) {
+            if (stringPrefixLength < 0) {
+                throw new IllegalArgumentException("stringPrefixLength must not be negative: " + stringPrefixLength);
+            }
+            this.stringPrefixLength = stringPrefixLength;
+            return this;
+        }
+
+        /**
+         * 値をツールで扱いやすい形式で返します。
+         * 日時はエポックからのミリ秒、null は JSON の null になります。
+         * 指定しない場合、日時は端末のロケールの形式にエポックからのミリ秒を付けた文字列、null は {@code [null]} です。
+         */
+        public ProviderBuilder withCompactValueEncoding() {
+            this.compactValueEncoding = true;
+            return this;
+        }
+
+        /**
+         * 日時を ISO-8601 形式(UTC)の文字列で返します。
+         * {@link #withCompactValueEncoding()} も指定した場合は、エポックからのミリ秒になります。
+         */
+        public ProviderBuilder withIso8601Dates() {
+            this.iso8601Dates = true;
+            return this;
+        }
+
         public ProviderBuilder withFolder(File folder) {
             this.folder = folder;
             return this;
@@ -219,6 +284,10 @@ public class RealmInspectorModulesProvider implements InspectorModulesProvider {
                     withMetaTables,
                     databaseNamePattern,
                     limit,
+                    byteLimit,
+                    stringPrefixLength,
+                    compactValueEncoding,
+                    iso8601Dates,
                     ascendingOrder,
                     defaultEncryptionKey,
                     encryptionKeys);
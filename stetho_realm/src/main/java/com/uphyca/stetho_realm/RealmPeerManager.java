@@ -7,37 +7,128 @@ import com.facebook.stetho.inspector.helper.PeerRegistrationListener;
 import com.facebook.stetho.inspector.jsonrpc.JsonRpcPeer;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.channels.NotYetConnectedException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nullable;
 
+import io.realm.Realm;
 import io.realm.RealmConfiguration;
 import io.realm.exceptions.RealmError;
+import io.realm.exceptions.RealmFileException;
 import io.realm.internal.SharedRealm;
 import io.realm.internal.Table;
+import io.realm.internal.TableQuery;
+import io.realm.internal.TableView;
 
 
 public class RealmPeerManager extends ChromePeerManager {
     private static final String TABLE_PREFIX = "class_"; // Realm#TABLE_PREFIX
+    private static final long WORKER_IDLE_TIMEOUT_MILLIS = 30 * 1000L;
+    private static final int PROBE_POOL_SIZE = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final long PROBE_TIMEOUT_MILLIS = 5 * 1000L;
+    private static final String SNAPSHOT_DIRECTORY = "stetho_realm_snapshots";
+    private static final String MIXED_DURABILITY_MESSAGE = "durability setting";
 
     private final String packageName;
     private final RealmFilesProvider realmFilesProvider;
+    private final boolean ascendingOrder;
     private byte[] defaultEncryptionKey;
     private Map<String, byte[]> encryptionKeys;
 
+    /**
+     * databaseId -> (テーブル名 -> 統計情報)。Realm のバージョンが変わったものは再計算します。
+     */
+    private final Map<String, Map<String, CachedColumnStatistics>> columnStatisticsCache = new HashMap<>();
+
+    /**
+     * {@link #snapshotDatabase} で作ったコピーの databaseId -> コピー。ピアがいなくなったら削除します。
+     */
+    private final Map<String, Snapshot> snapshots = new HashMap<>();
+
+    /**
+     * 前回作った Database.addDatabase のイベント。作り直したときにまとめて差し替えます。
+     */
+    private volatile DatabaseEvents cachedDatabaseEvents;
+
+    /**
+     * ファイルを調べてから addDatabase を送るスレッド。ピアの登録中(ChromePeerManager のロックを保持している間)には調べません。
+     */
+    private final ThreadPoolExecutor bootstrapExecutor = new ThreadPoolExecutor(1, 1,
+            WORKER_IDLE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "StethoRealm-bootstrap");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /**
+     * databaseId ごとの、そのデータベースの SharedRealm を保持するワーカー
+     */
+    private final RealmWorker.Pool workers = new RealmWorker.Pool(new RealmWorker.Opener() {
+        @Override
+        public SharedRealm open(String databaseId) {
+            return openSharedRealm(databaseId);
+        }
+    }, WORKER_IDLE_TIMEOUT_MILLIS);
+
+    /**
+     * 各データベースファイルを設定されたキーで開けるかどうか。ピアの接続時に調べます。
+     */
+    private final DatabaseFileProber databaseFileProber;
+
+    /**
+     * ピアごとの、順番に読んでいるページの次のページの先読み結果。
+     */
+    private final PagePrefetcher pagePrefetcher = new PagePrefetcher();
+
+    /**
+     * @param ascendingOrder {@code LIMIT}/{@code OFFSET} の行を数える向き。表示順と同じにします。
+     */
     public RealmPeerManager(String packageName,
             RealmFilesProvider filesProvider,
+            boolean ascendingOrder,
             byte[] defaultEncryptionKey,
             Map<String, byte[]> encryptionKeys) {
+        this(packageName, filesProvider, ascendingOrder, defaultEncryptionKey, encryptionKeys, null);
+    }
+
+    /**
+     * @param probe データベースファイルの調べ方。{@code null} なら設定されたキーで実際に開いて調べます。
+     */
+    RealmPeerManager(String packageName,
+            RealmFilesProvider filesProvider,
+            boolean ascendingOrder,
+            byte[] defaultEncryptionKey,
+            Map<String, byte[]> encryptionKeys,
+            @Nullable DatabaseFileProber.Probe probe) {
         this.packageName = packageName;
         this.realmFilesProvider = filesProvider;
+        this.ascendingOrder = ascendingOrder;
         this.defaultEncryptionKey = defaultEncryptionKey;
         this.encryptionKeys = encryptionKeys;
+        this.databaseFileProber = new DatabaseFileProber(probe != null ? probe : new DatabaseFileProber.Probe() {
+            @Override
+            public DatabaseFileProber.Status probe(File file) {
+                return probeDatabaseFile(file);
+            }
+        }, PROBE_POOL_SIZE, PROBE_TIMEOUT_MILLIS);
 
+        bootstrapExecutor.allowCoreThreadTimeOut(true);
         setListener(new PeerRegistrationListener() {
             @Override
             public void onPeerRegistered(JsonRpcPeer peer) {
@@ -46,43 +137,358 @@ public class RealmPeerManager extends ChromePeerManager {
 
             @Override
             public void onPeerUnregistered(JsonRpcPeer peer) {
+                pagePrefetcher.removePeer(peer);
+                if (!hasRegisteredPeers()) {
+                    deleteSnapshots();
+                }
             }
         });
     }
 
-    public List<String> getDatabaseTableNames(String databaseId, boolean withMetaTables) {
-        final List<String> tableNames = new ArrayList<>();
+    public List<String> getDatabaseTableNames(String databaseId, final boolean withMetaTables) {
+        return workers.execute(databaseId, "getDatabaseTableNames:" + withMetaTables, new RealmWorker.Task<List<String>>() {
+            @Override
+            public List<String> run(RealmWorker worker) {
+                final List<String> tableNames = new ArrayList<>();
+
+                final SharedRealm sharedRealm = worker.sharedRealm();
+                for (int i = 0; i < sharedRealm.size(); i++) {
+                    final String tableName = sharedRealm.getTableName(i);
+                    if (withMetaTables || tableName.startsWith(TABLE_PREFIX)) {
+                        tableNames.add(tableName);
+                    }
+                }
+
+                return tableNames;
+            }
+        });
+    }
+
+    public List<ColumnStatistics> getColumnStatistics(final String databaseId, final String tableName) {
+        return workers.execute(databaseId, "getColumnStatistics:" + tableName, new RealmWorker.Task<List<ColumnStatistics>>() {
+            @Override
+            public List<ColumnStatistics> run(RealmWorker worker) {
+                final SharedRealm sharedRealm = worker.sharedRealm();
+                if (!sharedRealm.hasTable(tableName)) {
+                    throw new SQLiteException("no such table: " + tableName);
+                }
+                final SharedRealm.VersionID version = sharedRealm.getVersionID();
+                synchronized (columnStatisticsCache) {
+                    final Map<String, CachedColumnStatistics> tables = columnStatisticsCache.get(databaseId);
+                    final CachedColumnStatistics cached = tables == null ? null : tables.get(tableName);
+                    if (cached != null && cached.version.compareTo(version) == 0) {
+                        return cached.statistics;
+                    }
+                }
+
+                final List<ColumnStatistics> statistics = ColumnStatistics.collect(sharedRealm.getTable(tableName));
+
+                synchronized (columnStatisticsCache) {
+                    Map<String, CachedColumnStatistics> tables = columnStatisticsCache.get(databaseId);
+                    if (tables == null) {
+                        tables = new HashMap<>();
+                        columnStatisticsCache.put(databaseId, tables);
+                    }
+                    tables.put(tableName, new CachedColumnStatistics(version, statistics));
+                }
+                return statistics;
+            }
+        });
+    }
+
+    /**
+     * データベースファイルごとのサイズ情報を返します。
+     * <p>
+     * Realm がファイル内に記録している論理的なファイルサイズと空き領域(freelist)の合計を、
+     * ファイルを読み取り専用で開いて読みます({@link RealmFile})。SharedRealm は開かず、
+     * 読むのはファイルの先頭とトップ配列、freelist の配列だけです。
+     * 生きているデータのサイズは、論理的なファイルサイズから空き領域を引いたものです。
+     * 保持されているバージョン数は、freelist に記録された解放したバージョンから推定します({@link RealmFile#getVersions})。
+     * 暗号化されたファイルは読めないので、ファイルサイズだけを返します。
+     */
+    public List<Database.DatabaseFileStatus> getDatabaseFileStatuses() {
+        final List<Database.DatabaseFileStatus> statuses = new ArrayList<>();
+        for (File database : tidyDatabaseList(realmFilesProvider.getDatabaseFiles())) {
+            final Database.DatabaseFileStatus status = new Database.DatabaseFileStatus();
+            status.id = database.getPath();
+            status.name = database.getName();
+            status.fileSize = database.length();
+            if (getEncryptionKey(status.id) != null) {
+                status.message = "encrypted: size details are not available";
+                statuses.add(status);
+                continue;
+            }
+            try {
+                final RealmFile file = RealmFile.open(database);
+                try {
+                    status.freeSpaceSize = file.getFreeSpaceSize() + Math.max(0L, status.fileSize - file.getLogicalFileSize());
+                    status.liveDataSize = Math.max(0L, file.getLogicalFileSize() - file.getFreeSpaceSize());
+                    status.versions = file.getVersions();
+                } finally {
+                    file.close();
+                }
+            } catch (IOException | RuntimeException e) {
+                status.message = e.getMessage();
+            }
+            statuses.add(status);
+        }
+        return statuses;
+    }
+
+    /**
+     * データベースファイルをコンパクションします。
+     * <p>
+     * ワーカーが保持している SharedRealm は閉じてから実行します。
+     * アプリや他のスレッドがそのファイルを開いている間は何もせず、{@code compacted} が {@code false} になります。
+     */
+    public Database.CompactDatabaseResponse compactDatabase(final String databaseId) {
+        return workers.execute(databaseId, null, new RealmWorker.Task<Database.CompactDatabaseResponse>() {
+            @Override
+            public Database.CompactDatabaseResponse run(RealmWorker worker) {
+                worker.closeSharedRealm();
+
+                final File databaseFile = new File(databaseId);
+                final Database.CompactDatabaseResponse response = new Database.CompactDatabaseResponse();
+                response.sizeBefore = databaseFile.length();
+                response.compacted = Realm.compactRealm(newConfigurationBuilder(databaseId).build());
+                response.sizeAfter = databaseFile.length();
+                response.reclaimedBytes = Math.max(0L, response.sizeBefore - response.sizeAfter);
+                if (response.compacted) {
+                    synchronized (columnStatisticsCache) {
+                        columnStatisticsCache.remove(databaseId);
+                    }
+                    pagePrefetcher.removeDatabase(databaseId);
+                }
+                return response;
+            }
+        });
+    }
+
+    /**
+     * データベースの現在の内容をコピーして、{@value #SNAPSHOT_DIRECTORY} フォルダに新しいデータベースファイルとして保存します。
+     * コピーは {@link #diffTable} の比較元として使えます。
+     * <p>
+     * コピーは元のファイルと同じ鍵で暗号化されます。同じデータベースのコピーは最新の1つだけを残し、
+     * すべてのピアが切断したときに削除します。
+     *
+     * @return コピーの databaseId。
+     */
+    public String snapshotDatabase(final String databaseId) {
+        final File databaseFile = new File(databaseId);
+        final File parent = databaseFile.getAbsoluteFile().getParentFile();
+        final File snapshotDirectory = SNAPSHOT_DIRECTORY.equals(parent.getName()) ? parent : new File(parent, SNAPSHOT_DIRECTORY);
+        if (!snapshotDirectory.isDirectory() && !snapshotDirectory.mkdirs()) {
+            throw new SQLiteException("cannot create " + snapshotDirectory.getPath());
+        }
+        final String name = databaseFile.getName();
+        final int extension = name.lastIndexOf('.');
+        final String baseName = extension > 0 ? name.substring(0, extension) : name;
+        final String suffix = extension > 0 ? name.substring(extension) : "";
+        final File snapshot = new File(snapshotDirectory, baseName + "-snapshot-" + System.currentTimeMillis() + suffix);
+
+        final List<String> replaced = new ArrayList<>();
+        final byte[] encryptionKey = getEncryptionKey(databaseId);
+        synchronized (snapshots) {
+            for (Map.Entry<String, Snapshot> entry : snapshots.entrySet()) {
+                if (entry.getValue().sourceId.equals(databaseId)) {
+                    replaced.add(entry.getKey());
+                }
+            }
+            snapshots.put(snapshot.getPath(), new Snapshot(databaseId, encryptionKey));
+        }
+        deleteStaleSnapshots(snapshotDirectory);
 
-        final SharedRealm sharedRealm = openSharedRealm(databaseId);
-        //noinspection TryWithIdenticalCatches,TryFinallyCanBeTryWithResources
         try {
-            for (int i = 0; i < sharedRealm.size(); i++) {
-                final String tableName = sharedRealm.getTableName(i);
-                if (withMetaTables || tableName.startsWith(TABLE_PREFIX)) {
-                    tableNames.add(tableName);
+            workers.execute(databaseId, null, new RealmWorker.Task<Void>() {
+                @Override
+                public Void run(RealmWorker worker) {
+                    worker.sharedRealm().writeCopy(snapshot, encryptionKey);
+                    return null;
+                }
+            });
+        } catch (RuntimeException e) {
+            deleteSnapshot(snapshot.getPath());
+            throw e;
+        }
+        for (String snapshotId : replaced) {
+            deleteSnapshot(snapshotId);
+        }
+
+        Database.DatabaseObject databaseParams = new Database.DatabaseObject();
+        databaseParams.id = snapshot.getPath();
+        databaseParams.name = snapshot.getName();
+        databaseParams.domain = packageName;
+        databaseParams.version = (encryptionKey != null
+                ? DatabaseFileProber.Status.ENCRYPTED
+                : DatabaseFileProber.Status.PLAIN).label;
+        Database.AddDatabaseEvent eventParams = new Database.AddDatabaseEvent();
+        eventParams.database = databaseParams;
+        sendNotificationToPeers("Database.addDatabase", eventParams);
+
+        return snapshot.getPath();
+    }
+
+    /**
+     * 2つのデータベースファイルにある同名のテーブルを比較します。
+     *
+     * @param databaseId 比較先(新しい方)のデータベース。
+     * @param baseDatabaseId 比較元(古い方)のデータベース。
+     * @param maxChanges 返す差分の最大件数。
+     */
+    public TableDiff diffTable(String databaseId,
+            final String baseDatabaseId,
+            final String tableName,
+            final long maxChanges) {
+        if (new File(databaseId).getAbsoluteFile().equals(new File(baseDatabaseId).getAbsoluteFile())) {
+            throw new SQLiteException("cannot compare a database with itself: " + databaseId);
+        }
+        return workers.execute(databaseId, null, new RealmWorker.Task<TableDiff>() {
+            @Override
+            public TableDiff run(RealmWorker worker) {
+                final Table after = CompiledQuery.getExistingTable(worker.sharedRealm(), tableName);
+                // 比較元はこのスレッドで一時的に開く
+                final SharedRealm baseRealm = openSharedRealm(baseDatabaseId);
+                //noinspection TryFinallyCanBeTryWithResources
+                try {
+                    final Table before = CompiledQuery.getExistingTable(baseRealm, tableName);
+                    return TableDiff.compute(before, after, maxChanges);
+                } finally {
+                    baseRealm.close();
                 }
             }
-        } finally {
-            sharedRealm.close();
+        });
+    }
+
+    private void deleteSnapshots() {
+        final List<String> snapshotIds;
+        synchronized (snapshots) {
+            snapshotIds = new ArrayList<>(snapshots.keySet());
         }
+        for (String snapshotId : snapshotIds) {
+            deleteSnapshot(snapshotId);
+        }
+    }
 
-        return tableNames;
+    /**
+     * 以前のプロセスが残したコピーを削除します。
+     */
+    private void deleteStaleSnapshots(File snapshotDirectory) {
+        final File[] files = snapshotDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (!file.isFile() || !file.getName().contains("-snapshot-")) {
+                continue;
+            }
+            final boolean tracked;
+            synchronized (snapshots) {
+                tracked = snapshots.containsKey(file.getPath());
+            }
+            if (!tracked) {
+                Realm.deleteRealm(newConfigurationBuilder(file.getPath()).build());
+            }
+        }
     }
 
-    private void bootstrapNewPeer(JsonRpcPeer peer) {
-        List<File> potentialDatabaseFiles = realmFilesProvider.getDatabaseFiles();
-        Iterable<File> tidiedList = tidyDatabaseList(potentialDatabaseFiles);
+    /**
+     * コピーを削除します。ワーカーが開いている SharedRealm を閉じてから、そのワーカーのスレッドで削除します。
+     */
+    private void deleteSnapshot(final String snapshotId) {
+        synchronized (snapshots) {
+            snapshots.remove(snapshotId);
+        }
+        synchronized (columnStatisticsCache) {
+            columnStatisticsCache.remove(snapshotId);
+        }
+        pagePrefetcher.removeDatabase(snapshotId);
+        workers.executeInBackground(snapshotId, new RealmWorker.Task<Void>() {
+            @Override
+            public Void run(RealmWorker worker) {
+                worker.closeSharedRealm();
+                Realm.deleteRealm(newConfigurationBuilder(snapshotId).build());
+                return null;
+            }
+        });
+    }
+
+    /**
+     * ChromePeerManager のロックを保持したまま呼び出されるので、ファイルを調べる必要があれば別のスレッドで行います。
+     */
+    private void bootstrapNewPeer(final JsonRpcPeer peer) {
+        final List<Database.AddDatabaseEvent> cached = getCachedAddDatabaseEvents(tidyDatabaseList(realmFilesProvider.getDatabaseFiles()));
+        if (cached != null) {
+            sendAddDatabaseEvents(peer, cached);
+            return;
+        }
+        bootstrapExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                sendAddDatabaseEvents(peer, getAddDatabaseEvents());
+            }
+        });
+    }
+
+    private static void sendAddDatabaseEvents(JsonRpcPeer peer, List<Database.AddDatabaseEvent> events) {
+        try {
+            for (Database.AddDatabaseEvent eventParams : events) {
+                peer.invokeMethod("Database.addDatabase", eventParams, null /* callback */);
+            }
+        } catch (NotYetConnectedException e) {
+            // 調べている間に切断された
+        }
+    }
+
+    /**
+     * 前回とファイル一覧が同じで、各ファイルの調査結果も変わっていなければ、前回作ったイベントを返します。
+     */
+    @Nullable
+    private List<Database.AddDatabaseEvent> getCachedAddDatabaseEvents(List<File> databaseFiles) {
+        final DatabaseEvents cached = cachedDatabaseEvents;
+        if (cached == null || !cached.files.equals(databaseFiles)) {
+            return null;
+        }
+        for (int i = 0; i < databaseFiles.size(); i++) {
+            final DatabaseFileProber.Status status = databaseFileProber.getStatus(databaseFiles.get(i));
+            final DatabaseFileProber.Status cachedStatus = cached.statuses.get(i);
+            // 時間内に終わらなかった調査は、終わるまで TIMEOUT のまま使う
+            if (status == null ? cachedStatus != DatabaseFileProber.Status.TIMEOUT : status != cachedStatus) {
+                return null;
+            }
+        }
+        return cached.events;
+    }
+
+    /**
+     * Database.addDatabase のイベントを返します。前回から変わっていなければ、前回作ったイベントを全ピアで共有します。
+     * <p>
+     * 各ファイルを開けるかどうかを並行して調べ、結果を version に示します。ロックは保持しません。
+     */
+    private List<Database.AddDatabaseEvent> getAddDatabaseEvents() {
+        final List<File> tidiedList = tidyDatabaseList(realmFilesProvider.getDatabaseFiles());
+        final List<Database.AddDatabaseEvent> cached = getCachedAddDatabaseEvents(tidiedList);
+        if (cached != null) {
+            return cached;
+        }
+
+        final List<Database.AddDatabaseEvent> events = new ArrayList<>();
+        final List<DatabaseFileProber.Status> statusList = new ArrayList<>();
+        final Map<File, DatabaseFileProber.Status> statuses = databaseFileProber.probeAll(tidiedList);
         for (File database : tidiedList) {
+            final DatabaseFileProber.Status status = statuses.get(database);
             Database.DatabaseObject databaseParams = new Database.DatabaseObject();
             databaseParams.id = database.getPath();
             databaseParams.name = database.getName();
             databaseParams.domain = packageName;
-            databaseParams.version = "N/A";
+            databaseParams.version = status.label;
             Database.AddDatabaseEvent eventParams = new Database.AddDatabaseEvent();
             eventParams.database = databaseParams;
-
-            peer.invokeMethod("Database.addDatabase", eventParams, null /* callback */);
+            events.add(eventParams);
+            statusList.add(status);
         }
+
+        cachedDatabaseEvents = new DatabaseEvents(tidiedList, statusList, events);
+        return events;
     }
 
     /**
@@ -102,48 +508,406 @@ public class RealmPeerManager extends ChromePeerManager {
         return tidiedList;
     }
 
-    private static final Pattern SELECT_PATTERN = Pattern.compile("SELECT[ \\t]+rowid,[ \\t]+\\*[ \\t]+FROM \"([^\"]+)\"");
-
     public <T> T executeSQL(String databaseId, String query, RealmPeerManager.ExecuteResultHandler<T> executeResultHandler) {
-        final SharedRealm sharedRealm = openSharedRealm(databaseId);
-        //noinspection TryWithIdenticalCatches,TryFinallyCanBeTryWithResources
-        try {
-            query = query.trim();
+        return executeSQL(databaseId, query, null, null, executeResultHandler);
+    }
+
+    public <T> T executeSQL(String databaseId,
+            String query,
+            @Nullable QueryPlan plan,
+            RealmPeerManager.ExecuteResultHandler<T> executeResultHandler) {
+        return executeSQL(databaseId, query, null, plan, executeResultHandler);
+    }
 
-            final Matcher selectMatcher = SELECT_PATTERN.matcher(query);
-            if (selectMatcher.matches()) {
-                final String tableName = selectMatcher.group(1);
+    /**
+     * クエリを実行します。
+     * <p>
+     * クエリはリテラルを {@code ?} に置き換えた形({@link QueryShape})ごとに解析結果をキャッシュするので、
+     * 値だけが違うクエリを繰り返し実行する場合は解析とテーブル・カラムの解決を省略します。
+     *
+     * @param peer クエリを送ってきたピア。{@code null} でなければ、{@code LIMIT}/{@code OFFSET} で
+     * 順番にページを読んでいることを検出して次のページを先読みします。
+     * @param plan {@code null} でなければ、アクセス方法と各段階の所要時間を記録します。
+     */
+    public <T> T executeSQL(final String databaseId,
+            final String query,
+            @Nullable final JsonRpcPeer peer,
+            @Nullable final QueryPlan plan,
+            final RealmPeerManager.ExecuteResultHandler<T> executeResultHandler) {
+        // EXPLAIN は所要時間を測るのでまとめない。ピアからのページの読み出しは、
+        // ピアごとに先読みの判断をするのでまとめない
+        final String coalesceKey = plan == null && !(peer != null && QueryShape.isPaged(query))
+                ? "executeSQL:" + query
+                : null;
+        return workers.execute(databaseId, coalesceKey, new RealmWorker.Task<T>() {
+            @Override
+            public T run(RealmWorker worker) {
+                final long openStart = System.nanoTime();
+                final SharedRealm sharedRealm = worker.sharedRealm();
+                if (plan != null) {
+                    plan.openNanos = System.nanoTime() - openStart;
+                }
+
+                final long queryStart = System.nanoTime();
+                final QueryShape shape = QueryShape.of(query);
+                final CompiledQuery compiled = getCompiledQuery(worker, sharedRealm, shape, plan);
+
+                switch (compiled.kind) {
+                    case SELECT:
+                    case SAMPLE: {
+                        final Table table = compiled.table;
+                        if (compiled.isPaged()) {
+                            return executePage(sharedRealm, table, compiled.columns,
+                                    new PagePrefetcher.Page(databaseId, compiled.tableName, parseOffset(compiled, shape), parseLimit(compiled, shape)),
+                                    peer, plan, queryStart, executeResultHandler);
+                        }
+                        final RowSelection rows;
+                        if (compiled.kind == CompiledQuery.Kind.SELECT) {
+                            rows = RowSelection.all(table.size());
+                            if (plan != null) {
+                                plan.describeFullScan(table);
+                            }
+                        } else {
+                            final int sampleSize = parseSampleSize(shape.parameters.get(0));
+                            rows = compiled.stride
+                                    ? RowSelection.strideSample(table.size(), sampleSize)
+                                    : RowSelection.uniformSample(table.size(), sampleSize, new Random());
+                            if (plan != null) {
+                                plan.describeSample(table, compiled.stride ? "STRIDE" : "UNIFORM", rows.size());
+                            }
+                        }
+                        if (plan != null) {
+                            plan.queryNanos = System.nanoTime() - queryStart;
+                        }
+                        return executeResultHandler.handleSelect(table, compiled.columns, rows, true);
+                    }
+                    case WHERE: {
+                        final Table table = compiled.table;
+                        final RowSelection rows = findRows(table, compiled, shape.parameters.get(0), plan);
+                        if (plan != null) {
+                            plan.queryNanos = System.nanoTime() - queryStart;
+                        }
+                        return executeResultHandler.handleSelect(table, compiled.columns, rows, true);
+                    }
+                    case JOIN: {
+                        final Table table = compiled.table;
+                        final Table targetTable = compiled.joinedTable;
+                        if (plan != null) {
+                            plan.describeJoin(table, targetTable, compiled.columnName, false);
+                            plan.queryNanos = System.nanoTime() - queryStart;
+                        }
+                        return executeResultHandler.handleJoin(table, compiled.columns, joinSourceRows(table, compiled, shape),
+                                targetTable, compiled.joinedColumns, compiled.columnIndex, false);
+                    }
+                    case BACKLINK_JOIN: {
+                        final Table table = compiled.table;
+                        final Table linkTable = compiled.joinedTable;
+                        if (plan != null) {
+                            plan.describeJoin(table, linkTable, compiled.columnName, true);
+                            plan.queryNanos = System.nanoTime() - queryStart;
+                        }
+                        return executeResultHandler.handleJoin(table, compiled.columns, joinSourceRows(table, compiled, shape),
+                                linkTable, compiled.joinedColumns, compiled.columnIndex, true);
+                    }
+                    case DISTINCT:
+                    case GROUP_BY: {
+                        final boolean withCount = compiled.kind == CompiledQuery.Kind.GROUP_BY;
+                        final Table table = compiled.table;
+                        final ValueCounts counts = ValueCounts.count(table, compiled.columnIndex, withCount);
+                        if (plan != null) {
+                            plan.describeGroupBy(table, compiled.columnIndex, counts);
+                            plan.queryNanos = System.nanoTime() - queryStart;
+                        }
+                        return executeResultHandler.handleGroupBy(table, compiled.columnIndex, counts, withCount);
+                    }
+                    default:
+                        throw new SQLiteException("unsupported query: " + query);
+                }
+            }
+        });
+    }
 
-                final Table table = sharedRealm.getTable(tableName);
-                return executeResultHandler.handleSelect(table, true);
+    /**
+     * {@code LIMIT}/{@code OFFSET} で指定されたページを返します。
+     * <p>
+     * 先読みしてあればそれを返します。ピアが順番にページを読んでいれば、次のページの先読みを
+     * ワーカーのバックグラウンドのタスクとして予約します。
+     */
+    private <T> T executePage(SharedRealm sharedRealm,
+            Table table,
+            TableColumns columns,
+            PagePrefetcher.Page page,
+            @Nullable JsonRpcPeer peer,
+            @Nullable QueryPlan plan,
+            long queryStart,
+            ExecuteResultHandler<T> executeResultHandler) {
+        if (peer != null && plan == null) {
+            @SuppressWarnings("unchecked")
+            final T prefetched = (T) pagePrefetcher.take(peer, page, sharedRealm.getVersionID());
+            final PagePrefetcher.Page next = pagePrefetcher.onRequest(peer, page);
+            if (next != null) {
+                prefetchPage(peer, next, executeResultHandler);
             }
+            if (prefetched != null) {
+                return prefetched;
+            }
+        }
 
-            // TODO 読み出し以外にも対応する
+        final RowSelection rows = RowSelection.page(RowSelection.all(table.size()), page.offset, page.count, ascendingOrder);
+        if (plan != null) {
+            plan.describePage(table, page.offset, page.count, rows.size());
+            plan.queryNanos = System.nanoTime() - queryStart;
+        }
+        return executeResultHandler.handleSelect(table, columns, rows, true);
+    }
+
+    private <T> void prefetchPage(final JsonRpcPeer peer,
+            final PagePrefetcher.Page page,
+            final ExecuteResultHandler<T> executeResultHandler) {
+        workers.executeInBackground(page.databaseId, new RealmWorker.Task<Void>() {
+            @Override
+            public Void run(RealmWorker worker) {
+                // 先読みを待つ間に別のページに移っていれば何もしない
+                if (!pagePrefetcher.isWanted(peer, page)) {
+                    return null;
+                }
+                final SharedRealm sharedRealm = worker.sharedRealm();
+                if (!sharedRealm.hasTable(page.tableName)) {
+                    return null;
+                }
+                final Table table = sharedRealm.getTable(page.tableName);
+                final RowSelection rows = RowSelection.page(RowSelection.all(table.size()), page.offset, page.count, ascendingOrder);
+                try {
+                    pagePrefetcher.put(peer, page, sharedRealm.getVersionID(), executeResultHandler.handleSelect(table, TableColumns.of(table), rows, true));
+                } catch (SQLiteException e) {
+                    // 先読みの失敗は捨てる。そのページが要求されたときに改めて実行して報告する
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * クエリの形に対応する解析済みクエリを返します。キャッシュにないか、使えなくなっていれば解析し直します。
+     * <p>
+     * 解析済みクエリはワーカーごとに、スキーマバージョンとクエリの形をキーにして保持するので、
+     * キャッシュにあればテーブルとカラムの解決を省略します。
+     * 解析に失敗したクエリ(存在しないテーブルなど)はキャッシュしません。
+     */
+    private CompiledQuery getCompiledQuery(RealmWorker worker,
+            SharedRealm sharedRealm,
+            QueryShape shape,
+            @Nullable QueryPlan plan) {
+        final String key = sharedRealm.getSchemaVersion() + "\0" + shape.text;
+        CompiledQuery compiled = worker.getCompiledQuery(key);
+        final boolean cached = compiled != null && compiled.isAttached();
+        if (!cached) {
+            compiled = CompiledQuery.compile(sharedRealm, shape.text);
+            worker.putCompiledQuery(key, compiled);
+        }
+        if (plan != null) {
+            plan.shape = shape.text;
+            plan.compiledQueryCached = cached;
+        }
+        return compiled;
+    }
+
+    private static long parseLimit(CompiledQuery compiled, QueryShape shape) {
+        return compiled.limitParameter < 0
+                ? Long.MAX_VALUE
+                : parseCount(shape.parameters.get(compiled.limitParameter), "LIMIT");
+    }
+
+    private static long parseOffset(CompiledQuery compiled, QueryShape shape) {
+        return compiled.offsetParameter < 0
+                ? 0
+                : parseCount(shape.parameters.get(compiled.offsetParameter), "OFFSET");
+    }
+
+    /**
+     * JOIN で結合する元の行を返します。{@code LIMIT}/{@code OFFSET} は結合する前の行を数えます。
+     */
+    private RowSelection joinSourceRows(Table table, CompiledQuery compiled, QueryShape shape) {
+        final RowSelection rows = RowSelection.all(table.size());
+        if (!compiled.isPaged()) {
+            return rows;
+        }
+        return RowSelection.page(rows, parseOffset(compiled, shape), parseLimit(compiled, shape), ascendingOrder);
+    }
+
+    /**
+     * {@code column = literal} を満たす行を探します。
+     * <p>
+     * プライマリキーのカラムならプライマリキーのインデックスで1行を探します。
+     * それ以外はネイティブのクエリで探し、検索インデックスがあればそれが使われます。
+     * {@code rowid} という名前のカラムがない場合、{@code rowid} は行インデックスを表します。
+     */
+    private static RowSelection findRows(Table table, CompiledQuery compiled, String literal, @Nullable QueryPlan plan) {
+        final String columnName = compiled.columnName;
+        final long columnIndex = compiled.columnIndex;
+        final Object value = parseLiteral(literal, compiled.columnType, columnName);
+        if (compiled.lookup == CompiledQuery.Lookup.ROW_INDEX) {
+            final long rowIndex = value == null ? -1 : (Long) value;
+            if (plan != null) {
+                plan.describeLookup(table, columnName, "ROW INDEX", null, 1);
+            }
+            return RowSelection.of(0 <= rowIndex && rowIndex < table.size() ? new long[]{rowIndex} : new long[0]);
+        }
+
+        if (value != null && compiled.lookup == CompiledQuery.Lookup.PRIMARY_KEY) {
+            final long rowIndex = (value instanceof String)
+                    ? table.findFirstString(columnIndex, (String) value)
+                    : table.findFirstLong(columnIndex, (Long) value);
+            if (plan != null) {
+                plan.describeLookup(table, columnName, "PRIMARY KEY LOOKUP", columnName, 1);
+                plan.primaryKeyUsed = true;
+            }
+            return RowSelection.of(rowIndex < 0 ? new long[0] : new long[]{rowIndex});
+        }
+
+        final TableQuery query = table.where();
+        final long[] columnIndices = {columnIndex};
+        if (value == null) {
+            query.isNull(columnIndices);
+        } else if (value instanceof String) {
+            query.equalTo(columnIndices, (String) value);
+        } else if (value instanceof Long) {
+            query.equalTo(columnIndices, (Long) value);
+        } else if (value instanceof Boolean) {
+            query.equalTo(columnIndices, (Boolean) value);
+        } else if (value instanceof Float) {
+            query.equalTo(columnIndices, (Float) value);
+        } else {
+            query.equalTo(columnIndices, (Double) value);
+        }
+        final TableView tableView = query.findAll();
+        if (plan != null) {
+            final boolean indexed = table.hasSearchIndex(columnIndex);
+            plan.describeLookup(table, columnName,
+                    indexed ? "INDEX LOOKUP" : QueryPlan.ACCESS_FULL_SCAN + " (native query)",
+                    indexed ? columnName : null,
+                    indexed ? tableView.size() : table.size());
+        }
+        return RowSelection.of(tableView);
+    }
+
+    private static Object parseLiteral(String literal, Database.StethoRealmFieldType type, String columnName) {
+        if ("NULL".equalsIgnoreCase(literal)) {
             return null;
-        } finally {
-            sharedRealm.close();
+        }
+        try {
+            switch (type) {
+                case STRING:
+                    if (literal.startsWith("'")) {
+                        return literal.substring(1, literal.length() - 1).replace("''", "'");
+                    }
+                    break;
+                case INTEGER:
+                    return Long.parseLong(literal.startsWith("+") ? literal.substring(1) : literal);
+                case FLOAT:
+                    return Float.parseFloat(literal);
+                case DOUBLE:
+                    return Double.parseDouble(literal);
+                case BOOLEAN:
+                    if ("TRUE".equalsIgnoreCase(literal) || "FALSE".equalsIgnoreCase(literal)) {
+                        return Boolean.parseBoolean(literal);
+                    }
+                    break;
+                default:
+                    throw new SQLiteException("cannot compare " + type.name() + " column: " + columnName);
+            }
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        throw new SQLiteException("invalid value for " + columnName + ": " + literal);
+    }
+
+    private static long parseCount(String count, String clause) {
+        for (int i = 0; i < count.length(); i++) {
+            if (count.charAt(i) < '0' || '9' < count.charAt(i)) {
+                throw new SQLiteException("invalid " + clause + ": " + count);
+            }
+        }
+        try {
+            return Long.parseLong(count);
+        } catch (NumberFormatException e) {
+            throw new SQLiteException(clause + " is too large: " + count);
         }
     }
 
+    private static int parseSampleSize(String sampleSize) {
+        for (int i = 0; i < sampleSize.length(); i++) {
+            if (sampleSize.charAt(i) < '0' || '9' < sampleSize.charAt(i)) {
+                throw new SQLiteException("invalid sample size: " + sampleSize);
+            }
+        }
+        try {
+            return Integer.parseInt(sampleSize);
+        } catch (NumberFormatException e) {
+            throw new SQLiteException("sample size is too large: " + sampleSize);
+        }
+    }
+
+    /**
+     * データベースを開きます。
+     * <p>
+     * 接続時の調査で開けないと分かっているファイルは開こうとせず、in-memory と分かっているファイルは
+     * 最初から in-memory で開きます。調べたファイルでは RealmError 後の開き直しもしません。
+     */
     private SharedRealm openSharedRealm(String databaseId) {
-        return openSharedRealm(databaseId, null);
+        final File databaseFile = new File(databaseId);
+        final DatabaseFileProber.Status status = databaseFileProber.getStatus(databaseFile);
+        if (status == null || status == DatabaseFileProber.Status.TIMEOUT) {
+            return openSharedRealm(databaseId, null);
+        }
+        if (!status.readable) {
+            throw new SQLiteException("cannot open " + databaseFile.getName() + ": " + status.label);
+        }
+        return openSharedRealm(databaseId, status == DatabaseFileProber.Status.IN_MEMORY
+                ? SharedRealm.Durability.MEM_ONLY
+                : SharedRealm.Durability.FULL);
     }
 
-    private SharedRealm openSharedRealm(String databaseId,
-            @Nullable SharedRealm.Durability durability) {
-        final byte[] encryptionKey = getEncryptionKey(databaseId);
+    /**
+     * ファイルを設定されたキーで開いてみます。{@link DatabaseFileProber} のスレッドで呼び出されます。
+     * <p>
+     * in-memory で開いてみることはしません。セッションを最初に開いた側はファイルを空にし、最後に閉じた側は
+     * ファイルを削除するので、開けなかったファイルを in-memory で開くと中身を消してしまうことがあります。
+     * in-memory と判定するのは、アプリが in-memory で開いているために Durability が一致しないと
+     * 報告された場合だけです。
+     */
+    private DatabaseFileProber.Status probeDatabaseFile(File file) {
+        final String databaseId = file.getPath();
+        final boolean encrypted = getEncryptionKey(databaseId) != null;
+        try {
+            openSharedRealm(databaseId, SharedRealm.Durability.FULL).close();
+            return encrypted ? DatabaseFileProber.Status.ENCRYPTED : DatabaseFileProber.Status.PLAIN;
+        } catch (RealmFileException e) {
+            // 復号できない、Realm のファイルではない、など
+            return encrypted ? DatabaseFileProber.Status.WRONG_KEY : DatabaseFileProber.Status.UNREADABLE;
+        } catch (RealmError | RuntimeException e) {
+            if (isMixedDurability(e)) {
+                return DatabaseFileProber.Status.IN_MEMORY;
+            }
+            return encrypted ? DatabaseFileProber.Status.WRONG_KEY : DatabaseFileProber.Status.UNREADABLE;
+        }
+    }
 
-        final RealmConfiguration.Builder builder = new RealmConfiguration.Builder();
-        final File databaseFile = new File(databaseId).getAbsoluteFile();
-        builder.directory(databaseFile.getParentFile());
-        builder.name(databaseFile.getName());
+    /**
+     * 同じファイルが別の Durability で開かれている場合のエラーかどうか。
+     * Realm Core の LogicError::mixed_durability はメッセージでしか区別できません。
+     */
+    private static boolean isMixedDurability(Throwable e) {
+        final String message = e.getMessage();
+        return message != null && message.toLowerCase(Locale.US).contains(MIXED_DURABILITY_MESSAGE);
+    }
 
+    private SharedRealm openSharedRealm(String databaseId,
+            @Nullable SharedRealm.Durability durability) {
+        final RealmConfiguration.Builder builder = newConfigurationBuilder(databaseId);
         if (durability == SharedRealm.Durability.MEM_ONLY) {
             builder.inMemory();
         }
-        if (encryptionKey != null) {
-            builder.encryptionKey(encryptionKey);
-        }
 
         try {
             return SharedRealm.getInstance(builder.build());
@@ -157,6 +921,20 @@ public class RealmPeerManager extends ChromePeerManager {
         }
     }
 
+    private RealmConfiguration.Builder newConfigurationBuilder(String databaseId) {
+        final byte[] encryptionKey = getEncryptionKey(databaseId);
+
+        final RealmConfiguration.Builder builder = new RealmConfiguration.Builder();
+        final File databaseFile = new File(databaseId).getAbsoluteFile();
+        builder.directory(databaseFile.getParentFile());
+        builder.name(databaseFile.getName());
+
+        if (encryptionKey != null) {
+            builder.encryptionKey(encryptionKey);
+        }
+        return builder;
+    }
+
     private Class<?> getRealmErrorClass() {
         try {
             return Class.forName("io.realm.exceptions.RealmError");
@@ -166,6 +944,12 @@ public class RealmPeerManager extends ChromePeerManager {
     }
 
     private byte[] getEncryptionKey(String databaseId) {
+        synchronized (snapshots) {
+            final Snapshot snapshot = snapshots.get(databaseId);
+            if (snapshot != null) {
+                return snapshot.encryptionKey;
+            }
+        }
         final String databaseName = new File(databaseId).getName();
         if (encryptionKeys.containsKey(databaseName)) { // value が null の場合があるので getではダメ
             return encryptionKeys.get(databaseName);
@@ -173,11 +957,68 @@ public class RealmPeerManager extends ChromePeerManager {
         return defaultEncryptionKey;
     }
 
+    /**
+     * ファイル一覧と、それぞれの調査結果から作った Database.addDatabase のイベント。
+     */
+    private static class DatabaseEvents {
+        final List<File> files;
+        final List<DatabaseFileProber.Status> statuses;
+        final List<Database.AddDatabaseEvent> events;
+
+        DatabaseEvents(List<File> files, List<DatabaseFileProber.Status> statuses, List<Database.AddDatabaseEvent> events) {
+            this.files = files;
+            this.statuses = statuses;
+            this.events = events;
+        }
+    }
+
+    /**
+     * {@link #snapshotDatabase} で作ったコピー。コピー元と同じ鍵で暗号化されています。
+     */
+    private static class Snapshot {
+        final String sourceId;
+        final byte[] encryptionKey;
+
+        Snapshot(String sourceId, byte[] encryptionKey) {
+            this.sourceId = sourceId;
+            this.encryptionKey = encryptionKey;
+        }
+    }
+
+    private static class CachedColumnStatistics {
+        final SharedRealm.VersionID version;
+        final List<ColumnStatistics> statistics;
+
+        CachedColumnStatistics(SharedRealm.VersionID version, List<ColumnStatistics> statistics) {
+            this.version = version;
+            this.statistics = statistics;
+        }
+    }
+
     public interface ExecuteResultHandler<T> {
         @SuppressWarnings("unused")
         T handleRawQuery() throws SQLiteException;
 
-        T handleSelect(Table table, boolean addRowIndex) throws SQLiteException;
+        /**
+         * @param columns {@code table} のカラム。
+         */
+        T handleSelect(Table table, TableColumns columns, RowSelection rows, boolean addRowIndex) throws SQLiteException;
+
+        /**
+         * @param joinedTable {@code backlink} が {@code false} ならリンク先のテーブル、
+         * {@code true} なら {@code table} へリンクしているテーブル。
+         * @param linkColumnIndex リンクのカラム。{@code backlink} が {@code false} なら {@code table} の、
+         * {@code true} なら {@code joinedTable} のカラムです。
+         */
+        T handleJoin(Table table,
+                TableColumns columns,
+                RowSelection rows,
+                Table joinedTable,
+                TableColumns joinedColumns,
+                long linkColumnIndex,
+                boolean backlink) throws SQLiteException;
+
+        T handleGroupBy(Table table, long columnIndex, ValueCounts counts, boolean withCount) throws SQLiteException;
 
         @SuppressWarnings("unused")
         T handleInsert(long var1) throws SQLiteException;
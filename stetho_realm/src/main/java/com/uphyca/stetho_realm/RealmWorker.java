@@ -0,0 +1,382 @@
+package com.uphyca.stetho_realm;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import io.realm.internal.SharedRealm;
+
+/**
+ * 1つのデータベースファイルに対する処理を専用スレッドで順番に実行します。
+ * <p>
+ * SharedRealm はスレッドに閉じたオブジェクトなので、開いたスレッド以外からは使えません。
+ * RealmWorker のスレッドが SharedRealm を開いたまま保持することで、同じデータベースへの
+ * 連続したリクエストでは開き直しを省きます。スレッドは最初のリクエストで起動し、
+ * 一定時間リクエストがなければ {@link Pool} から取り除かれ、SharedRealm を閉じて終了します。
+ * 終了したワーカーが再び使われることはなく、次のリクエストでは新しいワーカーが作られます。
+ * <p>
+ * 同じキーを持つ読み出しリクエストがまだキューに残っている場合、新しいリクエストは
+ * キューに積まずにその結果を共有します。
+ * <p>
+ * 先読みなどのバックグラウンドのタスクは、キューにある通常のリクエストがすべて終わってから実行します。
+ */
+final class RealmWorker {
+
+    /**
+     * ワーカーごとの解析済みクエリのキャッシュの最大件数。
+     */
+    private static final int MAX_COMPILED_QUERIES = 128;
+
+    interface Opener {
+        SharedRealm open(String databaseId);
+    }
+
+    /**
+     * databaseId ごとの RealmWorker です。
+     * <p>
+     * リクエストをキューに積むのも、アイドル状態のワーカーを取り除くのもこのプールのロックを
+     * 保持して行うので、終了したワーカーにリクエストが積まれることはありません。
+     * SharedRealm を閉じるのはプールのロックを手放してからなので、その間も他のデータベースへのリクエストは待たされません。
+     * 同じデータベースの新しいワーカーは、前のワーカーが閉じ終わってから SharedRealm を開きます。
+     */
+    static final class Pool {
+        private final Opener opener;
+        private final long idleTimeoutMillis;
+
+        // guarded by this
+        private final Map<String, RealmWorker> workers = new HashMap<>();
+        /**
+         * プールから取り除かれ、SharedRealm を閉じている途中のワーカー。
+         */
+        // guarded by this
+        private final Map<String, RealmWorker> retiring = new HashMap<>();
+
+        Pool(Opener opener, long idleTimeoutMillis) {
+            this.opener = opener;
+            this.idleTimeoutMillis = idleTimeoutMillis;
+        }
+
+        /**
+         * タスクを databaseId のワーカースレッドで実行し、完了するまで待ちます。
+         *
+         * @param coalesceKey 同じ結果を返す読み出しを識別するキー。{@code null} なら他のリクエストとまとめません。
+         */
+        <T> T execute(String databaseId, @Nullable String coalesceKey, Task<T> task) {
+            final Request<T> request;
+            synchronized (this) {
+                request = get(databaseId).enqueue(coalesceKey, task, false);
+            }
+            return request.await();
+        }
+
+        /**
+         * タスクを優先度の低いバックグラウンドのタスクとしてキューに積み、完了を待たずに戻ります。
+         * 結果と例外は捨てられます。
+         */
+        synchronized void executeInBackground(String databaseId, Task<?> task) {
+            get(databaseId).enqueue(null, task, true);
+        }
+
+        // guarded by this
+        private RealmWorker get(String databaseId) {
+            RealmWorker worker = workers.get(databaseId);
+            if (worker == null) {
+                worker = new RealmWorker(this, databaseId, retiring.get(databaseId));
+                workers.put(databaseId, worker);
+            }
+            return worker;
+        }
+    }
+
+    interface Task<T> {
+        /**
+         * ワーカースレッド上で実行されます。
+         *
+         * @param worker {@link #sharedRealm()} で SharedRealm を取得するための RealmWorker。
+         */
+        T run(RealmWorker worker);
+    }
+
+    private final Pool pool;
+    private final String databaseId;
+
+    // guarded by this
+    private final LinkedList<Request<?>> queue = new LinkedList<>();
+    // guarded by this
+    private Thread thread;
+    // guarded by this
+    private boolean closed;
+
+    /**
+     * 同じデータベースの、SharedRealm を閉じている途中だった前のワーカー。閉じ終わるまで開きません。
+     */
+    // ワーカースレッドからのみアクセスする
+    @Nullable
+    private RealmWorker predecessor;
+
+    // ワーカースレッドからのみアクセスする
+    private SharedRealm sharedRealm;
+    private boolean refreshed;
+    /**
+     * スキーマバージョン, クエリの形 -> sharedRealm で解決した解析済みクエリ。最近使われていないものから捨てます。
+     */
+    private final Map<String, CompiledQuery> compiledQueries = new LinkedHashMap<String, CompiledQuery>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CompiledQuery> eldest) {
+            return size() > MAX_COMPILED_QUERIES;
+        }
+    };
+
+    private RealmWorker(Pool pool, String databaseId, @Nullable RealmWorker predecessor) {
+        this.pool = pool;
+        this.databaseId = databaseId;
+        this.predecessor = predecessor;
+    }
+
+    /**
+     * {@link Pool} のロックを保持して呼び出します。
+     */
+    private synchronized <T> Request<T> enqueue(@Nullable String coalesceKey, Task<T> task, boolean background) {
+        if (coalesceKey != null) {
+            for (Request<?> queued : queue) {
+                if (coalesceKey.equals(queued.coalesceKey)) {
+                    // 同じキーなら同じ型の結果を返す
+                    @SuppressWarnings("unchecked")
+                    final Request<T> coalesced = (Request<T>) queued;
+                    return coalesced;
+                }
+            }
+        }
+        final Request<T> request = new Request<>(coalesceKey, task, background);
+        if (background) {
+            queue.addLast(request);
+        } else {
+            // バックグラウンドのタスクより前に入れる
+            int position = queue.size();
+            while (position > 0 && queue.get(position - 1).background) {
+                position--;
+            }
+            queue.add(position, request);
+        }
+        if (thread == null) {
+            thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    loop();
+                }
+            }, "StethoRealm-" + new File(databaseId).getName());
+            thread.setDaemon(true);
+            thread.start();
+        } else {
+            notifyAll();
+        }
+        return request;
+    }
+
+    private void loop() {
+        while (true) {
+            final Request<?> request = take();
+            if (request == null) {
+                if (retire()) {
+                    return;
+                }
+                continue;
+            }
+            refreshed = false;
+            request.run(this);
+        }
+    }
+
+    /**
+     * 次のリクエストを取り出します。
+     *
+     * @return アイドル状態が続いた場合は {@code null}。
+     */
+    private synchronized Request<?> take() {
+        long remaining = pool.idleTimeoutMillis;
+        final long deadline = System.currentTimeMillis() + pool.idleTimeoutMillis;
+        while (queue.isEmpty()) {
+            if (remaining <= 0) {
+                return null;
+            }
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                return null;
+            }
+            remaining = deadline - System.currentTimeMillis();
+        }
+        return queue.removeFirst();
+    }
+
+    /**
+     * キューが空のままなら、プールから取り除いてから、このスレッドで SharedRealm を閉じて終了します。
+     * 取り除くまではプールのロックを保持するので、終了するワーカーにリクエストが積まれることはありません。
+     * 閉じるのはロックを手放してからです。
+     *
+     * @return 終了する場合は {@code true}。その間にリクエストが積まれていれば {@code false}。
+     */
+    private boolean retire() {
+        synchronized (pool) {
+            synchronized (this) {
+                if (!queue.isEmpty()) {
+                    return false;
+                }
+                if (pool.workers.get(databaseId) == this) {
+                    pool.workers.remove(databaseId);
+                }
+                pool.retiring.put(databaseId, this);
+                thread = null;
+            }
+        }
+
+        try {
+            closeSharedRealm();
+            // 開かないまま終了する場合も、前のワーカーが閉じ終わるまでは閉じ終わったことにしない
+            if (predecessor != null) {
+                predecessor.awaitClosed();
+                predecessor = null;
+            }
+        } finally {
+            synchronized (pool) {
+                if (pool.retiring.get(databaseId) == this) {
+                    pool.retiring.remove(databaseId);
+                }
+            }
+            synchronized (this) {
+                closed = true;
+                notifyAll();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * {@link #retire()} で SharedRealm を閉じ終わるまで待ちます。
+     */
+    private synchronized void awaitClosed() {
+        boolean interrupted = false;
+        while (!closed) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * ワーカースレッドが保持している SharedRealm を返します。
+     * 開いていなければ開き、リクエストごとに最初の呼び出しで最新のバージョンに進めます。
+     * {@link Task#run(RealmWorker)} の中からのみ呼び出せます。
+     */
+    SharedRealm sharedRealm() {
+        if (sharedRealm == null || sharedRealm.isClosed()) {
+            if (predecessor != null) {
+                predecessor.awaitClosed();
+                predecessor = null;
+            }
+            compiledQueries.clear();
+            sharedRealm = pool.opener.open(databaseId);
+        } else if (!refreshed) {
+            sharedRealm.refresh();
+        }
+        refreshed = true;
+        return sharedRealm;
+    }
+
+    /**
+     * ワーカースレッドが保持している SharedRealm を閉じます。
+     * {@link Task#run(RealmWorker)} の中からのみ呼び出せます。
+     */
+    void closeSharedRealm() {
+        compiledQueries.clear();
+        if (sharedRealm != null) {
+            sharedRealm.close();
+            sharedRealm = null;
+        }
+    }
+
+    /**
+     * {@link #sharedRealm()} で解決した解析済みクエリを返します。
+     * {@link Task#run(RealmWorker)} の中からのみ呼び出せます。
+     *
+     * @return キャッシュにない場合は {@code null}。
+     */
+    @Nullable
+    CompiledQuery getCompiledQuery(String key) {
+        return compiledQueries.get(key);
+    }
+
+    /**
+     * {@link Task#run(RealmWorker)} の中からのみ呼び出せます。
+     */
+    void putCompiledQuery(String key, CompiledQuery compiled) {
+        compiledQueries.put(key, compiled);
+    }
+
+    private static final class Request<T> {
+        final String coalesceKey;
+        final boolean background;
+        private final Task<T> task;
+
+        // guarded by this
+        private boolean done;
+        private T result;
+        private Throwable error;
+
+        Request(@Nullable String coalesceKey, Task<T> task, boolean background) {
+            this.coalesceKey = coalesceKey;
+            this.task = task;
+            this.background = background;
+        }
+
+        void run(RealmWorker worker) {
+            T result = null;
+            Throwable error = null;
+            try {
+                result = task.run(worker);
+            } catch (RuntimeException e) {
+                error = e;
+            } catch (Error e) {
+                // RealmError などの後は SharedRealm を開き直す
+                worker.closeSharedRealm();
+                error = e;
+            }
+            synchronized (this) {
+                this.result = result;
+                this.error = error;
+                this.done = true;
+                notifyAll();
+            }
+        }
+
+        synchronized T await() {
+            boolean interrupted = false;
+            while (!done) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            }
+            if (error instanceof Error) {
+                throw (Error) error;
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.uphyca.stetho_realm;
+
+import java.util.Date;
+
+import javax.annotation.Nullable;
+
+/**
+ * 1行の値の読み出し方です。
+ * <p>
+ * 端末の Realm の行({@link Database.RowWrapper})と、ファイルから直接読み出す行({@link RealmFileRow})を
+ * {@link ValueFormatter} で同じように表示するためのものです。
+ */
+interface RowAccessor {
+
+    long getIndex();
+
+    Database.StethoRealmFieldType getColumnType(long columnIndex);
+
+    boolean isNull(long columnIndex);
+
+    boolean isNullLink(long columnIndex);
+
+    long getLong(long columnIndex);
+
+    boolean getBoolean(long columnIndex);
+
+    float getFloat(long columnIndex);
+
+    double getDouble(long columnIndex);
+
+    Date getDate(long columnIndex);
+
+    @Nullable
+    String getString(long columnIndex);
+
+    @Nullable
+    byte[] getBinaryByteArray(long columnIndex);
+
+    long getLink(long columnIndex);
+
+    /**
+     * LIST のリンク先のテーブル名。
+     */
+    String getLinkListTargetName(long columnIndex);
+
+    /**
+     * LIST のリンク先の行インデックス。
+     */
+    long[] getLinkListTargets(long columnIndex);
+}
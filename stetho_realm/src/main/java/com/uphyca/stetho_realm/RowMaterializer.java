@@ -0,0 +1,164 @@
+package com.uphyca.stetho_realm;
+
+import com.uphyca.stetho_realm.Database.StethoRealmFieldType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * 選んだ行を読み出して、{@code executeSQL} の結果の値の並びにします。
+ * <p>
+ * 行の読み出し方は {@link RowReader} で受け取るので、ネイティブライブラリなしでも動かせます。
+ */
+final class RowMaterializer {
+
+    /**
+     * 行インデックスから行を読み出します。
+     */
+    interface RowReader {
+        RowAccessor read(long rowIndex);
+    }
+
+    private final ValueFormatter formatter;
+    private final long byteLimit;
+    private final boolean ascendingOrder;
+
+    /**
+     * @param byteLimit 返却するデータの最大バイト数(目安)。超える場合は行数を減らして返します。
+     * @param ascendingOrder {@code true}なら行を選んだ順に、{@code false}なら逆順に返します。
+     */
+    RowMaterializer(ValueFormatter formatter, long byteLimit, boolean ascendingOrder) {
+        this.formatter = formatter;
+        this.byteLimit = byteLimit;
+        this.ascendingOrder = ascendingOrder;
+    }
+
+    /**
+     * @param primaryKeyColumn プライマリキーのカラム。ない場合は {@code -1}。
+     * @param addRowIndex {@code true}なら各行の先頭に行を識別する値を加えます。
+     */
+    List<Object> flatten(RowSelection rows,
+            RowReader reader,
+            StethoRealmFieldType[] columnTypes,
+            long primaryKeyColumn,
+            long limit,
+            boolean addRowIndex,
+            @Nullable QueryPlan plan) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must not be negative: " + limit);
+        }
+        final List<Object> flatList = new ArrayList<>();
+        final int numColumns = columnTypes.length;
+
+        final long numRows = rows.size();
+        long usedBytes = 0;
+        long scannedRows = 0;
+        long index;
+        for (index = 0; index < limit && index < numRows; index++) {
+            final long row = rows.get(ascendingOrder ? index : (numRows - index - 1));
+            final RowAccessor rowData = reader.read(row);
+            scannedRows++;
+            final int rowStart = flatList.size();
+            long rowBytes = 0;
+            if (addRowIndex) {
+                rowBytes += addValue(flatList, rowKey(rowData, primaryKeyColumn, columnTypes));
+            }
+            for (int column = 0; column < numColumns; column++) {
+                rowBytes += addValue(flatList, formatter.formatValue(rowData, column, columnTypes[column]));
+            }
+
+            // 最低1行は返す。予算を超える行は捨てて打ち切る
+            if (index > 0 && usedBytes + rowBytes > byteLimit) {
+                flatList.subList(rowStart, flatList.size()).clear();
+                break;
+            }
+            usedBytes += rowBytes;
+        }
+        if (plan != null) {
+            plan.actualRows = scannedRows;
+            plan.resultBytes = usedBytes;
+        }
+
+        if (index < numRows) {
+            final long numResultColumns = addRowIndex ? numColumns + 1 : numColumns;
+            for (int column = 0; column < numResultColumns; column++) {
+                flatList.add("{truncated}");
+            }
+        }
+
+        return flatList;
+    }
+
+    /**
+     * 行を識別する値を返します。{@code WHERE <pk> = ...} にそのまま使えるよう、文字列のプライマリキーも省略しません。
+     */
+    Object rowKey(RowAccessor rowData, long primaryKeyColumn, StethoRealmFieldType[] columnTypes) {
+        if (primaryKeyColumn < 0) {
+            return rowData.getIndex();
+        }
+        if (columnTypes[(int) primaryKeyColumn] == StethoRealmFieldType.STRING) {
+            final String key = rowData.getString(primaryKeyColumn);
+            return key == null ? formatter.nullValue : key;
+        }
+        return formatter.formatValue(rowData, primaryKeyColumn, columnTypes[(int) primaryKeyColumn]);
+    }
+
+    /**
+     * 値をリストに追加し、JSON にシリアライズした際のおおよそのバイト数を返します。
+     */
+    static long addValue(List<Object> flatList, Object value) {
+        flatList.add(value);
+        return estimateBytes(value);
+    }
+
+    private static long estimateBytes(Object value) {
+        if (value == null) {
+            // null and separator
+            return 5;
+        }
+        if (value instanceof String) {
+            // quotes and separator
+            return utf8Length((String) value) + 3;
+        }
+        if (value instanceof byte[]) {
+            // "[" + "-128," * n + "]"
+            return ((byte[]) value).length * 5L + 3;
+        }
+        if (value instanceof List) {
+            // 切り詰めたバイナリ
+            long bytes = 3;
+            for (Object element : (List<?>) value) {
+                bytes += estimateBytes(element);
+            }
+            return bytes;
+        }
+        if (value instanceof Byte) {
+            return 5;
+        }
+        if (value instanceof Boolean) {
+            return 6;
+        }
+        // long, float, double
+        return 21;
+    }
+
+    static long utf8Length(String value) {
+        long length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,165 @@
+package com.uphyca.stetho_realm;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import io.realm.internal.TableView;
+
+/**
+ * クエリが返す行のテーブル上のインデックスの並びです。
+ * <p>
+ * {@link Database} はこの並びの先頭(降順指定の場合は末尾)から順に行を読み出します。
+ */
+abstract class RowSelection {
+
+    /**
+     * テーブルの全行を先頭から順に選択します。
+     */
+    static RowSelection all(final long tableSize) {
+        return new RowSelection() {
+            @Override
+            long size() {
+                return tableSize;
+            }
+
+            @Override
+            long get(long position) {
+                return position;
+            }
+        };
+    }
+
+    /**
+     * 指定されたインデックスの行を選択します。
+     */
+    static RowSelection of(final long[] rowIndices) {
+        return new RowSelection() {
+            @Override
+            long size() {
+                return rowIndices.length;
+            }
+
+            @Override
+            long get(long position) {
+                return rowIndices[(int) position];
+            }
+        };
+    }
+
+    /**
+     * TableView に含まれる行を選択します。
+     */
+    static RowSelection of(final TableView tableView) {
+        return new RowSelection() {
+            @Override
+            long size() {
+                return tableView.size();
+            }
+
+            @Override
+            long get(long position) {
+                return tableView.getSourceRowIndex(position);
+            }
+        };
+    }
+
+    /**
+     * {@code rows} を表示順に並べたときの {@code offset} 番目から {@code count} 行を選択します。
+     * <p>
+     * 返す並びは {@code rows} と同じ向きなので、降順で表示する場合も末尾から読み出せば表示順になります。
+     *
+     * @param ascending 表示順が {@code rows} の昇順なら {@code true}、降順なら {@code false}。
+     */
+    static RowSelection page(final RowSelection rows, long offset, long count, boolean ascending) {
+        final long size = rows.size();
+        final long available = Math.max(0, size - offset);
+        final long pageSize = Math.min(available, count);
+        final long start = ascending ? Math.min(offset, size) : available - pageSize;
+        return new RowSelection() {
+            @Override
+            long size() {
+                return pageSize;
+            }
+
+            @Override
+            long get(long position) {
+                return rows.get(start + position);
+            }
+        };
+    }
+
+    /**
+     * テーブル全体から一様ランダムに {@code sampleSize} 行を選びます。
+     * <p>
+     * Floyd のアルゴリズムでインデックスだけを選ぶので、テーブルの大きさによらず
+     * 計算量もメモリも O(sampleSize) です。選んだ行はインデックス順に並べます。
+     */
+    static RowSelection uniformSample(long tableSize, int sampleSize, Random random) {
+        if (sampleSize >= tableSize) {
+            return all(tableSize);
+        }
+        final Set<Long> selected = new HashSet<>(sampleSize * 2);
+        for (long j = tableSize - sampleSize; j < tableSize; j++) {
+            final long candidate = nextLong(random, j + 1);
+            if (!selected.add(candidate)) {
+                selected.add(j);
+            }
+        }
+        final long[] rowIndices = new long[selected.size()];
+        int i = 0;
+        for (Long index : selected) {
+            rowIndices[i++] = index;
+        }
+        Arrays.sort(rowIndices);
+        return of(rowIndices);
+    }
+
+    /**
+     * テーブル全体から等間隔に {@code sampleSize} 行を選びます。
+     */
+    static RowSelection strideSample(final long tableSize, final int sampleSize) {
+        if (sampleSize >= tableSize) {
+            return all(tableSize);
+        }
+        final long quotient = tableSize / sampleSize;
+        final long remainder = tableSize % sampleSize;
+        return new RowSelection() {
+            @Override
+            long size() {
+                return sampleSize;
+            }
+
+            @Override
+            long get(long position) {
+                // position * tableSize / sampleSize をオーバーフローさせずに求める
+                return position * quotient + position * remainder / sampleSize;
+            }
+        };
+    }
+
+    /**
+     * {@code [0, bound)} の一様乱数を返します。
+     */
+    private static long nextLong(Random random, long bound) {
+        if (bound <= Integer.MAX_VALUE) {
+            return random.nextInt((int) bound);
+        }
+        long bits;
+        long value;
+        do {
+            bits = random.nextLong() >>> 1;
+            value = bits % bound;
+        } while (bits - value + (bound - 1) < 0);
+        return value;
+    }
+
+    abstract long size();
+
+    /**
+     * @param position {@code 0} 以上 {@link #size()} 未満の位置。
+     * @return その位置に選択された行のテーブル上のインデックス。
+     */
+    abstract long get(long position);
+}
@@ -0,0 +1,52 @@
+package com.uphyca.stetho_realm;
+
+import com.uphyca.stetho_realm.Database.StethoRealmFieldType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import io.realm.internal.Table;
+
+/**
+ * テーブルのカラムの名前と型、プライマリキーです。
+ * <p>
+ * 行ごと・セルごとに問い合わせないよう、解析済みクエリ({@link CompiledQuery})とともに保持します。
+ */
+final class TableColumns {
+
+    final List<String> names;
+    final StethoRealmFieldType[] types;
+    /**
+     * プライマリキーのカラム。ない場合は {@code -1}。
+     */
+    final long primaryKeyColumn;
+
+    private TableColumns(List<String> names, StethoRealmFieldType[] types, long primaryKeyColumn) {
+        this.names = names;
+        this.types = types;
+        this.primaryKeyColumn = primaryKeyColumn;
+    }
+
+    static TableColumns of(Table table) {
+        final int numColumns = (int) table.getColumnCount();
+        final List<String> names = new ArrayList<>(numColumns);
+        final StethoRealmFieldType[] types = new StethoRealmFieldType[numColumns];
+        for (int column = 0; column < numColumns; column++) {
+            names.add(table.getColumnName(column));
+            types[column] = StethoRealmFieldType.from(table.getColumnType(column));
+        }
+        return new TableColumns(Collections.unmodifiableList(names), types,
+                table.hasPrimaryKey() ? table.getPrimaryKey() : -1);
+    }
+
+    /**
+     * 行を識別する列の名前を返します。
+     * <p>
+     * 行インデックスは削除のたびに変わる(最後の行が削除された位置に移動する)ので、
+     * プライマリキーがあるテーブルではプライマリキーの値で行を識別します。
+     */
+    String rowKeyColumnName() {
+        return primaryKeyColumn >= 0 ? "<pk>" : "<index>";
+    }
+}
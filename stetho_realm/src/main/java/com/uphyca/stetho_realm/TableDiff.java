@@ -0,0 +1,277 @@
+package com.uphyca.stetho_realm;
+
+import android.database.sqlite.SQLiteException;
+
+import com.uphyca.stetho_realm.Database.RowFetcher;
+import com.uphyca.stetho_realm.Database.RowWrapper;
+import com.uphyca.stetho_realm.Database.StethoRealmFieldType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import io.realm.internal.Table;
+
+/**
+ * 2つのテーブル(別のファイルにある同名のテーブル)の差分です。
+ * <p>
+ * 片方の各行についてもう片方をプライマリキーのインデックスで引き、追加・削除・変更された行を求めます。
+ * Realm の文字列のソート順は Java の比較と一致しないため、ソートして突き合わせるのではなくインデックスを引きます。
+ * 保持するのは見つかった差分だけで、差分が {@code maxChanges} 件に達した時点で打ち切ります。
+ * <p>
+ * 両方のテーブルに同じ名前・同じ型のプライマリキーが必要です。行インデックスは削除のたびに
+ * 変わる(最後の行が削除された位置に移動する)ので、プライマリキーがないテーブルは比較できません。
+ * <p>
+ * OBJECT/LIST のリンク先の行インデックスはファイルごとに異なるので、リンク先のプライマリキーの値で比較します。
+ * リンク先に(両方のファイルで同じ名前の)プライマリキーがないカラムは比較しません。
+ */
+final class TableDiff {
+
+    enum Kind {
+        INSERTED,
+        DELETED,
+        CHANGED,
+        SCHEMA
+    }
+
+    static final class Change {
+        final Kind kind;
+        /**
+         * プライマリキーの値。
+         */
+        final Object key;
+        final String column;
+        final Object before;
+        final Object after;
+
+        Change(Kind kind, Object key, String column, Object before, Object after) {
+            this.kind = kind;
+            this.key = key;
+            this.column = column;
+            this.before = before;
+            this.after = after;
+        }
+    }
+
+    final List<Change> changes = new ArrayList<>();
+    boolean truncated;
+    long rowsRead;
+
+    private final long maxChanges;
+
+    private TableDiff(long maxChanges) {
+        this.maxChanges = maxChanges;
+    }
+
+    /**
+     * @param before 比較元(古い方)のテーブル。
+     * @param after 比較先(新しい方)のテーブル。
+     * @throws SQLiteException どちらかにプライマリキーがないか、プライマリキーの名前か型が違う場合。
+     */
+    static TableDiff compute(Table before, Table after, long maxChanges) {
+        if (!before.hasPrimaryKey() || !after.hasPrimaryKey()) {
+            throw new SQLiteException("cannot diff " + after.getName() + ": both tables need a primary key");
+        }
+        if (!hasSamePrimaryKey(before, after)) {
+            throw new SQLiteException("cannot diff " + after.getName() + ": primary key "
+                    + describePrimaryKey(before) + " does not match " + describePrimaryKey(after));
+        }
+        final TableDiff diff = new TableDiff(maxChanges);
+        final List<ColumnPair> columnPairs = diff.matchColumns(before, after);
+        diff.compareByPrimaryKey(before, after, columnPairs);
+        return diff;
+    }
+
+    /**
+     * 両方のテーブルに、同じ名前・同じ型のプライマリキーがあるかどうか。
+     */
+    private static boolean hasSamePrimaryKey(Table before, Table after) {
+        return before.hasPrimaryKey() && after.hasPrimaryKey()
+                && before.getColumnName(before.getPrimaryKey()).equals(after.getColumnName(after.getPrimaryKey()))
+                && before.getColumnType(before.getPrimaryKey()) == after.getColumnType(after.getPrimaryKey());
+    }
+
+    private static String describePrimaryKey(Table table) {
+        final long keyColumn = table.getPrimaryKey();
+        return table.getColumnName(keyColumn) + " (" + table.getColumnType(keyColumn).name() + ")";
+    }
+
+    /**
+     * 両方にある同じ名前・同じ型の、比較できるカラムの組を返します。片方にしかないカラムは SCHEMA として記録します。
+     */
+    private List<ColumnPair> matchColumns(Table before, Table after) {
+        final List<ColumnPair> pairs = new ArrayList<>();
+        for (long column = 0; column < before.getColumnCount(); column++) {
+            final String name = before.getColumnName(column);
+            final long afterColumn = after.getColumnIndex(name);
+            if (afterColumn < 0) {
+                add(new Change(Kind.SCHEMA, null, name, before.getColumnType(column).name(), null));
+            } else if (before.getColumnType(column) != after.getColumnType(afterColumn)) {
+                add(new Change(Kind.SCHEMA, null, name, before.getColumnType(column).name(), after.getColumnType(afterColumn).name()));
+            } else {
+                final ColumnPair pair = ColumnPair.of(before, column, after, afterColumn);
+                if (pair != null) {
+                    pairs.add(pair);
+                }
+            }
+        }
+        for (long column = 0; column < after.getColumnCount(); column++) {
+            final String name = after.getColumnName(column);
+            if (before.getColumnIndex(name) < 0) {
+                add(new Change(Kind.SCHEMA, null, name, null, after.getColumnType(column).name()));
+            }
+        }
+        return pairs;
+    }
+
+    private void compareByPrimaryKey(Table before, Table after, List<ColumnPair> columnPairs) {
+        final RowFetcher rowFetcher = RowFetcher.getInstance();
+        final long beforeKeyColumn = before.getPrimaryKey();
+        final long afterKeyColumn = after.getPrimaryKey();
+        final StethoRealmFieldType keyType = StethoRealmFieldType.from(after.getColumnType(afterKeyColumn));
+
+        final long afterSize = after.size();
+        for (long index = 0; index < afterSize && !truncated; index++) {
+            final RowWrapper afterRow = RowWrapper.wrap(rowFetcher.getRow(after, index));
+            final Object key = afterRow.getValue(afterKeyColumn, keyType);
+            final long beforeIndex = findByPrimaryKey(before, beforeKeyColumn, key);
+            rowsRead++;
+            if (beforeIndex < 0) {
+                add(new Change(Kind.INSERTED, key, null, null, null));
+            } else {
+                compareRows(key, RowWrapper.wrap(rowFetcher.getRow(before, beforeIndex)), afterRow, columnPairs);
+                rowsRead++;
+            }
+        }
+
+        final long beforeSize = before.size();
+        for (long index = 0; index < beforeSize && !truncated; index++) {
+            final RowWrapper beforeRow = RowWrapper.wrap(rowFetcher.getRow(before, index));
+            final Object key = beforeRow.getValue(beforeKeyColumn, keyType);
+            rowsRead++;
+            if (findByPrimaryKey(after, afterKeyColumn, key) < 0) {
+                add(new Change(Kind.DELETED, key, null, null, null));
+            }
+        }
+    }
+
+    private static long findByPrimaryKey(Table table, long keyColumn, Object key) {
+        if (key == null) {
+            return table.where().isNull(new long[]{keyColumn}).find();
+        }
+        if (key instanceof String) {
+            return table.findFirstString(keyColumn, (String) key);
+        }
+        return table.findFirstLong(keyColumn, (Long) key);
+    }
+
+    private void compareRows(Object key, RowWrapper beforeRow, RowWrapper afterRow, List<ColumnPair> columnPairs) {
+        for (ColumnPair pair : columnPairs) {
+            final Object beforeValue = pair.beforeValue(beforeRow);
+            final Object afterValue = pair.afterValue(afterRow);
+            if (!valueEquals(beforeValue, afterValue)) {
+                add(new Change(Kind.CHANGED, key, pair.name, beforeValue, afterValue));
+                if (truncated) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static boolean valueEquals(Object a, Object b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        if (a instanceof byte[] && b instanceof byte[]) {
+            return Arrays.equals((byte[]) a, (byte[]) b);
+        }
+        return a.equals(b);
+    }
+
+    private void add(Change change) {
+        if (changes.size() >= maxChanges) {
+            truncated = true;
+            return;
+        }
+        changes.add(change);
+    }
+
+    /**
+     * 比較する同じ名前・同じ型のカラムの組です。
+     */
+    private static final class ColumnPair {
+        final String name;
+        final StethoRealmFieldType type;
+        final long beforeColumn;
+        final long afterColumn;
+        /**
+         * OBJECT/LIST のリンク先のテーブル。それ以外は {@code null}。
+         */
+        final Table beforeTarget;
+        final Table afterTarget;
+
+        private ColumnPair(String name, StethoRealmFieldType type, long beforeColumn, long afterColumn, Table beforeTarget, Table afterTarget) {
+            this.name = name;
+            this.type = type;
+            this.beforeColumn = beforeColumn;
+            this.afterColumn = afterColumn;
+            this.beforeTarget = beforeTarget;
+            this.afterTarget = afterTarget;
+        }
+
+        /**
+         * @return 比較できないカラムの場合は {@code null}。
+         */
+        static ColumnPair of(Table before, long beforeColumn, Table after, long afterColumn) {
+            final String name = before.getColumnName(beforeColumn);
+            final StethoRealmFieldType type = StethoRealmFieldType.from(before.getColumnType(beforeColumn));
+            switch (type) {
+                case UNKNOWN:
+                case UNSUPPORTED_TABLE:
+                case UNSUPPORTED_MIXED:
+                    return null;
+                case OBJECT:
+                case LIST: {
+                    final Table beforeTarget = before.getLinkTarget(beforeColumn);
+                    final Table afterTarget = after.getLinkTarget(afterColumn);
+                    if (!beforeTarget.getName().equals(afterTarget.getName())
+                            || !hasSamePrimaryKey(beforeTarget, afterTarget)) {
+                        return null;
+                    }
+                    return new ColumnPair(name, type, beforeColumn, afterColumn, beforeTarget, afterTarget);
+                }
+                default:
+                    return new ColumnPair(name, type, beforeColumn, afterColumn, null, null);
+            }
+        }
+
+        Object beforeValue(RowWrapper row) {
+            return linkKeys(row.getValue(beforeColumn, type), beforeTarget);
+        }
+
+        Object afterValue(RowWrapper row) {
+            return linkKeys(row.getValue(afterColumn, type), afterTarget);
+        }
+
+        /**
+         * リンク先の行インデックスを、リンク先のプライマリキーの値に置き換えます。
+         */
+        private Object linkKeys(Object value, Table target) {
+            if (target == null || value == null) {
+                return value;
+            }
+            final long keyColumn = target.getPrimaryKey();
+            final StethoRealmFieldType keyType = StethoRealmFieldType.from(target.getColumnType(keyColumn));
+            final RowFetcher rowFetcher = RowFetcher.getInstance();
+            if (type == StethoRealmFieldType.OBJECT) {
+                return RowWrapper.wrap(rowFetcher.getRow(target, (Long) value)).getValue(keyColumn, keyType);
+            }
+            final List<?> rowIndices = (List<?>) value;
+            final List<Object> keys = new ArrayList<>(rowIndices.size());
+            for (Object rowIndex : rowIndices) {
+                keys.add(RowWrapper.wrap(rowFetcher.getRow(target, (Long) rowIndex)).getValue(keyColumn, keyType));
+            }
+            return keys;
+        }
+    }
+}
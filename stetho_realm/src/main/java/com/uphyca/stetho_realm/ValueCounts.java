@@ -0,0 +1,138 @@
+package com.uphyca.stetho_realm;
+
+import android.database.sqlite.SQLiteException;
+
+import com.uphyca.stetho_realm.Database.RowFetcher;
+import com.uphyca.stetho_realm.Database.RowWrapper;
+import com.uphyca.stetho_realm.Database.StethoRealmFieldType;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.realm.internal.Table;
+import io.realm.internal.TableQuery;
+import io.realm.internal.TableView;
+
+/**
+ * {@code SELECT DISTINCT} と {@code GROUP BY} のための、1カラムの値ごとの行数です。
+ * <p>
+ * 検索インデックスのあるカラムは Realm の distinct view で値を列挙し、行数もネイティブのクエリで数えます。
+ * それ以外はテーブルを1回走査して数えます。どちらの場合も保持する値は {@link #MAX_GROUPS} 種類までで、
+ * 残りの行はまとめて {@link #otherCount} に数えるので、異なり数が多いカラムでもメモリ使用量は一定です。
+ */
+final class ValueCounts {
+
+    static final int MAX_GROUPS = 1000;
+
+    /**
+     * 値 -> 行数。値は null を含みます。行数を数えていない場合は {@code -1} です。
+     */
+    final Map<Object, Long> counts = new LinkedHashMap<>();
+    long otherCount;
+    boolean hasOther;
+    boolean usedSearchIndex;
+    long rowsRead;
+
+    private ValueCounts() {
+    }
+
+    static ValueCounts count(Table table, long column, boolean withCount) {
+        final StethoRealmFieldType type = StethoRealmFieldType.from(table.getColumnType(column));
+        switch (type) {
+            case INTEGER:
+            case BOOLEAN:
+            case STRING:
+            case DATE:
+            case FLOAT:
+            case DOUBLE:
+            case OBJECT:
+                break;
+            default:
+                throw new SQLiteException("cannot group by " + type.name() + " column: " + table.getColumnName(column));
+        }
+
+        final ValueCounts result = new ValueCounts();
+        if (type != StethoRealmFieldType.OBJECT && table.hasSearchIndex(column)) {
+            result.countWithDistinctView(table, column, type, withCount);
+        } else {
+            result.countWithScan(table, column, type);
+        }
+        return result;
+    }
+
+    private void countWithDistinctView(Table table, long column, StethoRealmFieldType type, boolean withCount) {
+        usedSearchIndex = true;
+        final RowFetcher rowFetcher = RowFetcher.getInstance();
+        final TableView distinct = table.getDistinctView(column);
+        final long distinctSize = distinct.size();
+        long counted = 0;
+        for (long i = 0; i < distinctSize; i++) {
+            if (counts.size() >= MAX_GROUPS) {
+                hasOther = true;
+                break;
+            }
+            final RowWrapper rowData = RowWrapper.wrap(rowFetcher.getRow(table, distinct.getSourceRowIndex(i)));
+            rowsRead++;
+            final Object value = rowData.getValue(column, type);
+            if (withCount) {
+                final long count = countEqualTo(table, column, value);
+                counts.put(value, count);
+                counted += count;
+            } else {
+                counts.put(value, -1L);
+            }
+        }
+        if (hasOther && withCount) {
+            otherCount = table.size() - counted;
+        }
+    }
+
+    private static long countEqualTo(Table table, long column, Object value) {
+        if (value == null) {
+            return table.where().isNull(new long[]{column}).count();
+        }
+        if (value instanceof String) {
+            return table.count(column, (String) value);
+        }
+        if (value instanceof Long) {
+            return table.count(column, (Long) value);
+        }
+        final TableQuery query = table.where();
+        final long[] columns = {column};
+        if (value instanceof Boolean) {
+            return query.equalTo(columns, (Boolean) value).count();
+        }
+        if (value instanceof Date) {
+            return query.equalTo(columns, (Date) value).count();
+        }
+        if (value instanceof Float) {
+            return query.equalTo(columns, (Float) value).count();
+        }
+        return query.equalTo(columns, (Double) value).count();
+    }
+
+    private void countWithScan(Table table, long column, StethoRealmFieldType type) {
+        final RowFetcher rowFetcher = RowFetcher.getInstance();
+        // Long の再生成を避けるため long[1] で数える
+        final Map<Object, long[]> scanned = new LinkedHashMap<>();
+        final long tableSize = table.size();
+        for (long index = 0; index < tableSize; index++) {
+            final RowWrapper rowData = RowWrapper.wrap(rowFetcher.getRow(table, index));
+            final Object value = rowData.getValue(column, type);
+            final long[] count = scanned.get(value);
+            if (count != null) {
+                count[0]++;
+            } else if (scanned.size() < MAX_GROUPS) {
+                scanned.put(value, new long[]{1});
+            } else {
+                hasOther = true;
+                otherCount++;
+            }
+        }
+        rowsRead = tableSize;
+        for (Map.Entry<Object, long[]> entry : scanned.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue()[0]);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.uphyca.stetho_realm;
+
+import com.uphyca.stetho_realm.Database.StethoRealmFieldType;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * セルの値を表示用の値に変換します。{@link Database} と、ファイルを直接読む {@code RealmFileDump} で共有します。
+ */
+final class ValueFormatter {
+
+    static final String NULL = "[null]";
+
+    private final int stringPrefixLength;
+    private final boolean compactValueEncoding;
+    private final boolean iso8601Dates;
+    private DateFormat dateTimeFormatter;
+    /**
+     * null の値として返すもの。
+     */
+    final String nullValue;
+
+    /**
+     * @param stringPrefixLength 文字列を切り詰めずに返す最大文字数(バイナリはバイト数)。超える部分は省略し、元の長さを付記します。
+     * @param compactValueEncoding {@code true}なら日時をエポックからのミリ秒、null を JSON の null で返します。
+     * @param iso8601Dates {@code true}なら日時を ISO-8601 形式(UTC)で返します。{@code false}なら端末のロケールの形式で返します。
+     */
+    ValueFormatter(int stringPrefixLength, boolean compactValueEncoding, boolean iso8601Dates) {
+        this.stringPrefixLength = stringPrefixLength;
+        this.compactValueEncoding = compactValueEncoding;
+        this.iso8601Dates = iso8601Dates;
+        this.nullValue = compactValueEncoding ? null : NULL;
+    }
+
+    Object formatValue(RowAccessor rowData, long column, StethoRealmFieldType columnType) {
+        switch (columnType) {
+            case INTEGER:
+                if (rowData.isNull(column)) {
+                    return nullValue;
+                }
+                return rowData.getLong(column);
+            case BOOLEAN:
+                if (rowData.isNull(column)) {
+                    return nullValue;
+                }
+                return rowData.getBoolean(column);
+            case STRING:
+                if (rowData.isNull(column)) {
+                    return nullValue;
+                }
+                return truncateString(rowData.getString(column));
+            case BINARY:
+                if (rowData.isNull(column)) {
+                    return nullValue;
+                }
+                return truncateBinary(rowData.getBinaryByteArray(column));
+            case FLOAT:
+                if (rowData.isNull(column)) {
+                    return nullValue;
+                }
+                return formatFloatingPoint(rowData.getFloat(column));
+            case DOUBLE:
+                if (rowData.isNull(column)) {
+                    return nullValue;
+                }
+                return formatFloatingPoint(rowData.getDouble(column));
+            case OLD_DATE:
+            case DATE:
+                if (rowData.isNull(column)) {
+                    return nullValue;
+                }
+                return formatDate(rowData.getDate(column));
+            case OBJECT:
+                if (rowData.isNullLink(column)) {
+                    return nullValue;
+                }
+                return rowData.getLink(column);
+            case LIST:
+                // LIST never be null
+                return truncateString(formatList(rowData.getLinkListTargetName(column), rowData.getLinkListTargets(column)));
+            default:
+                return "unknown column type: " + columnType;
+        }
+    }
+
+    Object formatRawValue(Object value) {
+        if (value == null) {
+            return nullValue;
+        }
+        if (value instanceof Date) {
+            return formatDate((Date) value);
+        }
+        if (value instanceof String) {
+            return truncateString((String) value);
+        }
+        if (value instanceof byte[]) {
+            return truncateBinary((byte[]) value);
+        }
+        if (value instanceof List) {
+            // LIST のリンク先(TableDiff ではリンク先のプライマリキー)
+            return truncateString(value.toString());
+        }
+        if (value instanceof Float) {
+            return formatFloatingPoint((Float) value);
+        }
+        if (value instanceof Double) {
+            return formatFloatingPoint((Double) value);
+        }
+        return value;
+    }
+
+    String truncateString(String value) {
+        final int length = value.length();
+        if (length <= stringPrefixLength) {
+            return value;
+        }
+        int end = stringPrefixLength;
+        if (end > 0 && Character.isHighSurrogate(value.charAt(end - 1))) {
+            end--;
+        }
+        return value.substring(0, end) + "...{" + length + " chars}";
+    }
+
+    /**
+     * {@link #stringPrefixLength} バイトより長いバイナリは、先頭部分のバイトの後に元のバイト数を付記したリストにします。
+     */
+    Object truncateBinary(byte[] value) {
+        if (value.length <= stringPrefixLength) {
+            return value;
+        }
+        final List<Object> prefix = new ArrayList<>(stringPrefixLength + 1);
+        for (int i = 0; i < stringPrefixLength; i++) {
+            prefix.add(value[i]);
+        }
+        prefix.add("...{" + value.length + " bytes}");
+        return prefix;
+    }
+
+    private Object formatDate(Date date) {
+        if (compactValueEncoding) {
+            return date.getTime();
+        }
+        if (iso8601Dates) {
+            return Iso8601.format(date.getTime());
+        }
+        return formatLocalDate(date);
+    }
+
+    private synchronized String formatLocalDate(Date date) {
+        if (dateTimeFormatter == null) {
+            dateTimeFormatter = SimpleDateFormat.getDateTimeInstance(SimpleDateFormat.LONG, SimpleDateFormat.LONG);
+        }
+        return dateTimeFormatter.format(date) + " (" + date.getTime() + ')';
+    }
+
+    /**
+     * JSON で表せない NaN と無限大は、どちらのエンコーディングでも文字列で返します。
+     */
+    private static Object formatFloatingPoint(float value) {
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            return formatFloatingPoint((double) value);
+        }
+        return value;
+    }
+
+    private static Object formatFloatingPoint(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        } else if (value == Double.POSITIVE_INFINITY) {
+            return "Infinity";
+        } else if (value == Double.NEGATIVE_INFINITY) {
+            return "-Infinity";
+        }
+        return value;
+    }
+
+    private static String formatList(String targetName, long[] targets) {
+        final StringBuilder sb = new StringBuilder(targetName);
+        sb.append("{");
+        for (int i = 0; i < targets.length; i++) {
+            if (i != 0) {
+                sb.append(',');
+            }
+            sb.append(targets[i]);
+        }
+        sb.append("}");
+        return sb.toString();
+    }
+}
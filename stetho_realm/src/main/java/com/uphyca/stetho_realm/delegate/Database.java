@@ -62,6 +62,36 @@ public class Database implements ChromeDevtoolsDomain {
         }
     }
 
+    @ChromeDevtoolsMethod
+    @SuppressWarnings("unused")
+    public JsonRpcResult getColumnStatistics(JsonRpcPeer peer, JSONObject params) {
+        return realmDatabase.getColumnStatistics(peer, params);
+    }
+
+    @ChromeDevtoolsMethod
+    @SuppressWarnings("unused")
+    public JsonRpcResult getDatabaseFileStatus(JsonRpcPeer peer, JSONObject params) {
+        return realmDatabase.getDatabaseFileStatus(peer, params);
+    }
+
+    @ChromeDevtoolsMethod
+    @SuppressWarnings("unused")
+    public JsonRpcResult compactDatabase(JsonRpcPeer peer, JSONObject params) {
+        return realmDatabase.compactDatabase(peer, params);
+    }
+
+    @ChromeDevtoolsMethod
+    @SuppressWarnings("unused")
+    public JsonRpcResult snapshotDatabase(JsonRpcPeer peer, JSONObject params) {
+        return realmDatabase.snapshotDatabase(peer, params);
+    }
+
+    @ChromeDevtoolsMethod
+    @SuppressWarnings("unused")
+    public JsonRpcResult diffTable(JsonRpcPeer peer, JSONObject params) {
+        return realmDatabase.diffTable(peer, params);
+    }
+
     private static class GetDatabaseTableNamesRequest {
 
         @JsonProperty(required = true)
@@ -0,0 +1,76 @@
+package com.uphyca.stetho_realm;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class HyperLogLogTest {
+
+    private static final int PRECISION = 12;
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTooSmallPrecision() {
+        new HyperLogLog(3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTooLargePrecision() {
+        new HyperLogLog(17);
+    }
+
+    @Test
+    public void countsNothingWhenEmpty() {
+        assertEquals(0, new HyperLogLog(PRECISION).cardinality());
+    }
+
+    @Test
+    public void countsSmallCardinalityAlmostExactly() {
+        final HyperLogLog hll = new HyperLogLog(PRECISION);
+        for (long value = 0; value < 100; value++) {
+            hll.offer(value);
+        }
+        assertEquals(100, hll.cardinality(), 2);
+    }
+
+    @Test
+    public void ignoresDuplicates() {
+        final HyperLogLog once = new HyperLogLog(PRECISION);
+        final HyperLogLog twice = new HyperLogLog(PRECISION);
+        for (long value = 0; value < 5000; value++) {
+            once.offer(value);
+            twice.offer(value);
+            twice.offer(value);
+        }
+        assertEquals(once.cardinality(), twice.cardinality());
+    }
+
+    @Test
+    public void estimatesLargeCardinalityOfSequentialLongs() {
+        final HyperLogLog hll = new HyperLogLog(PRECISION);
+        for (long value = 0; value < 100000; value++) {
+            hll.offer(value);
+        }
+        // 標準誤差 1.6% の3倍程度まで
+        assertEquals(100000, hll.cardinality(), 5000);
+    }
+
+    @Test
+    public void estimatesCardinalityOfStrings() {
+        final HyperLogLog hll = new HyperLogLog(PRECISION);
+        for (int i = 0; i < 20000; i++) {
+            hll.offer("user-" + i);
+            hll.offer("user-" + (i % 100));
+        }
+        assertEquals(20000, hll.cardinality(), 1000);
+    }
+
+    @Test
+    public void countsEqualByteArraysOnce() {
+        final HyperLogLog hll = new HyperLogLog(PRECISION);
+        for (int i = 0; i < 1000; i++) {
+            hll.offer(new byte[]{1, 2, 3});
+            hll.offer(new byte[]{(byte) (i % 10)});
+        }
+        assertEquals(11, hll.cardinality());
+    }
+}
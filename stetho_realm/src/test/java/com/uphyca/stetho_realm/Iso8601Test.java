@@ -0,0 +1,62 @@
+package com.uphyca.stetho_realm;
+
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+public class Iso8601Test {
+
+    @Test
+    public void formatsEpoch() {
+        assertEquals("1970-01-01T00:00:00.000Z", Iso8601.format(0));
+    }
+
+    @Test
+    public void formatsMillisBeforeEpoch() {
+        assertEquals("1969-12-31T23:59:59.999Z", Iso8601.format(-1));
+    }
+
+    @Test
+    public void formatsLeapDay() {
+        assertEquals("2000-02-29T12:34:56.789Z", Iso8601.format(951827696789L));
+        assertEquals("2000-03-01T00:00:00.000Z", Iso8601.format(951868800000L));
+    }
+
+    @Test
+    public void formatsYearsOutsideFourDigits() {
+        assertEquals("0000-01-01T00:00:00.000Z", Iso8601.format(-62167219200000L));
+        assertEquals("-0001-12-31T23:59:59.999Z", Iso8601.format(-62167219200001L));
+        assertEquals("9999-12-31T23:59:59.999Z", Iso8601.format(253402300799999L));
+        assertEquals("+10000-01-01T00:00:00.000Z", Iso8601.format(253402300800000L));
+    }
+
+    @Test
+    public void formatsExtremeValues() {
+        assertEquals("+292278994-08-17T07:12:55.807Z", Iso8601.format(Long.MAX_VALUE));
+        assertEquals("-292275055-05-16T16:47:04.192Z", Iso8601.format(Long.MIN_VALUE));
+    }
+
+    @Test
+    public void matchesProlepticGregorianCalendar() {
+        final GregorianCalendar calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"), Locale.US);
+        calendar.setGregorianChange(new Date(Long.MIN_VALUE));
+        final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        format.setCalendar(calendar);
+
+        // 0001-01-01 から 9999-12-31 まで
+        final long min = -62135596800000L;
+        final long max = 253402300799999L;
+        final Random random = new Random(0);
+        for (int i = 0; i < 10000; i++) {
+            final long millis = min + (long) (random.nextDouble() * (max - min));
+            assertEquals(String.valueOf(millis), format.format(new Date(millis)), Iso8601.format(millis));
+        }
+    }
+}
@@ -0,0 +1,621 @@
+package com.uphyca.stetho_realm;
+
+import com.facebook.stetho.inspector.jsonrpc.DisconnectReceiver;
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcPeer;
+import com.facebook.stetho.inspector.jsonrpc.JsonRpcResult;
+import com.facebook.stetho.json.ObjectMapper;
+import com.facebook.stetho.json.annotation.JsonProperty;
+import com.facebook.stetho.websocket.SimpleSession;
+import com.uphyca.stetho_realm.Database.StethoRealmFieldType;
+
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * 複数のピアを同時に接続して {@code executeSQL} を送り、接続時の {@code Database.addDatabase} が届くまでの時間、
+ * スループット、レイテンシの分布、アロケーションを測ります。
+ * <p>
+ * ピアは {@link RealmPeerManager#addPeer} で登録するので、接続時の処理
+ * ({@code bootstrapNewPeer}、{@link RealmFilesProvider} の一覧、{@link DatabaseFileProber} の並行調査と
+ * 全ピアで共有するイベント)は実際のコードを通ります。ネイティブライブラリなしで JVM 上で動かすため、
+ * ファイルの調査は一定時間待って {@code PLAIN} を返すだけの {@link FakeProbe}、データベースファイルは空のファイル、
+ * セッションは送ったメッセージを数えるだけの {@link StandInPeer} で置き換えます。
+ * <p>
+ * {@code executeSQL} は SharedRealm を開けないので、テーブルを {@link FakeTable} で置き換え、
+ * それ以外のリクエストごとの処理({@link RealmWorker.Pool} のキューとまとめ、{@link QueryShape}、
+ * {@link RowSelection}、{@link RowMaterializer}、{@link ValueFormatter}、Stetho の {@link ObjectMapper})は
+ * 実際のコードを使います。
+ * <p>
+ * 結果は実行する環境の負荷で変わるので、ユニットテストには含めず手で実行します。
+ * <pre>
+ * java com.uphyca.stetho_realm.PeerLoadHarness [peers] [requestsPerPeer] [rows] [databases]
+ * </pre>
+ */
+public final class PeerLoadHarness {
+
+    private static final String TABLE_NAME = "Item";
+    private static final String PAGE_SHAPE = "SELECT rowid, * FROM \"" + TABLE_NAME + "\" LIMIT ? OFFSET ?";
+    private static final String SELECT_SHAPE = "SELECT rowid, * FROM \"" + TABLE_NAME + "\"";
+    private static final String WHERE_SHAPE = "SELECT rowid, * FROM \"" + TABLE_NAME + "\" WHERE id = ?";
+    private static final String SAMPLE_SHAPE = "SELECT rowid, * FROM \"" + TABLE_NAME + "\" TABLESAMPLE STRIDE (?)";
+    private static final String TABLE_NAMES_QUERY = "getDatabaseTableNames";
+    private static final int PAGE_SIZE = 100;
+
+    static final class Config {
+        int peers = 32;
+        int requestsPerPeer = 200;
+        int rows = 10000;
+        int databases = 4;
+        long limit = 250L;
+        long byteLimit = 2L * 1024L * 1024L;
+        /**
+         * ファイル1つを調べるのにかかる時間。SharedRealm を開いて閉じる時間の代わりです。
+         */
+        long probeMillis = 20L;
+        long bootstrapTimeoutMillis = 30 * 1000L;
+    }
+
+    static final class Report {
+        long databases;
+        long probes;
+        long[] bootstrapNanos;
+        long bootstrapTimeouts;
+        long requests;
+        long failures;
+        long executedTasks;
+        long wallNanos;
+        long[] latencyNanos;
+        long sentMessages;
+        long sentBytes;
+        /**
+         * 計測できない JVM では {@code -1}。
+         */
+        long peerAllocatedBytes = -1;
+        long workerAllocatedBytes = -1;
+
+        double throughput() {
+            return requests * 1e9 / wallNanos;
+        }
+
+        static long percentile(long[] sortedNanos, double p) {
+            if (sortedNanos.length == 0) {
+                return 0;
+            }
+            final int index = (int) Math.ceil(p / 100 * sortedNanos.length) - 1;
+            return sortedNanos[Math.max(0, Math.min(sortedNanos.length - 1, index))];
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder();
+            sb.append(String.format(Locale.US, "bootstrap: %d peers (%d timed out), %d probes for %d databases%n",
+                    bootstrapNanos.length, bootstrapTimeouts, probes, databases));
+            sb.append(String.format(Locale.US, "bootstrap ms: p50 %.3f, p90 %.3f, p99 %.3f, max %.3f%n",
+                    percentile(bootstrapNanos, 50) / 1e6, percentile(bootstrapNanos, 90) / 1e6,
+                    percentile(bootstrapNanos, 99) / 1e6, percentile(bootstrapNanos, 100) / 1e6));
+            sb.append(String.format(Locale.US, "requests %d (%d failed) in %.1f ms: %.0f req/s%n",
+                    requests, failures, wallNanos / 1e6, throughput()));
+            sb.append(String.format(Locale.US, "latency ms: p50 %.3f, p90 %.3f, p99 %.3f, p99.9 %.3f, max %.3f%n",
+                    percentile(latencyNanos, 50) / 1e6, percentile(latencyNanos, 90) / 1e6,
+                    percentile(latencyNanos, 99) / 1e6, percentile(latencyNanos, 99.9) / 1e6,
+                    percentile(latencyNanos, 100) / 1e6));
+            sb.append(String.format(Locale.US, "worker tasks %d (%d requests coalesced)%n",
+                    executedTasks, requests - executedTasks));
+            sb.append(String.format(Locale.US, "sent %d messages, %d bytes%n", sentMessages, sentBytes));
+            if (peerAllocatedBytes < 0) {
+                sb.append("allocations: not supported by this JVM");
+            } else {
+                sb.append(String.format(Locale.US, "allocations: peers %d bytes, workers %d bytes, %.0f bytes/request",
+                        peerAllocatedBytes, workerAllocatedBytes,
+                        (double) (peerAllocatedBytes + workerAllocatedBytes) / requests));
+            }
+            return sb.toString();
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        final Config config = new Config();
+        if (args.length > 0) {
+            config.peers = Integer.parseInt(args[0]);
+        }
+        if (args.length > 1) {
+            config.requestsPerPeer = Integer.parseInt(args[1]);
+        }
+        if (args.length > 2) {
+            config.rows = Integer.parseInt(args[2]);
+        }
+        if (args.length > 3) {
+            config.databases = Integer.parseInt(args[3]);
+        }
+        System.out.println(String.format(Locale.US, "peers %d, requests/peer %d, rows %d, databases %d",
+                config.peers, config.requestsPerPeer, config.rows, config.databases));
+        // JIT のウォームアップ
+        final Config warmUp = new Config();
+        warmUp.peers = 4;
+        warmUp.requestsPerPeer = 100;
+        warmUp.rows = config.rows;
+        warmUp.databases = config.databases;
+        run(warmUp);
+        System.out.println(run(config));
+    }
+
+    static Report run(final Config config) throws InterruptedException, IOException {
+        final File folder = Files.createTempDirectory("stetho_realm_load").toFile();
+        final List<String> databaseIds = new ArrayList<>();
+        for (int i = 0; i < config.databases; i++) {
+            final File file = new File(folder, "load" + i + ".realm");
+            if (!file.createNewFile()) {
+                throw new IOException("cannot create " + file);
+            }
+            databaseIds.add(file.getPath());
+        }
+        try {
+            return run(config, folder, databaseIds);
+        } finally {
+            for (String databaseId : databaseIds) {
+                //noinspection ResultOfMethodCallIgnored
+                new File(databaseId).delete();
+            }
+            //noinspection ResultOfMethodCallIgnored
+            folder.delete();
+        }
+    }
+
+    private static Report run(final Config config, File folder, final List<String> databaseIds) throws InterruptedException {
+        final FakeProbe probe = new FakeProbe(config.probeMillis);
+        final RealmPeerManager realmPeerManager = new RealmPeerManager("com.example",
+                new RealmFilesProvider(folder, Pattern.compile(".+\\.realm")),
+                true,
+                null,
+                Collections.<String, byte[]>emptyMap(),
+                probe);
+        final ObjectMapper objectMapper = new ObjectMapper();
+        final FakeTable table = new FakeTable(config.rows);
+        final ValueFormatter formatter = new ValueFormatter(RealmInspectorModulesProvider.DEFAULT_STRING_PREFIX_LENGTH, false, false);
+        final RowMaterializer materializer = new RowMaterializer(formatter, config.byteLimit, true);
+        // タスクは sharedRealm() を呼ばないので開かない
+        final RealmWorker.Pool workers = new RealmWorker.Pool(new RealmWorker.Opener() {
+            @Override
+            public io.realm.internal.SharedRealm open(String databaseId) {
+                throw new UnsupportedOperationException(databaseId);
+            }
+        }, 60 * 1000L);
+
+        final AtomicLong executedTasks = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong bootstrapTimeouts = new AtomicLong();
+        final AtomicLong peerAllocatedBytes = new AtomicLong();
+        final long[] bootstrapNanos = new long[config.peers];
+        final long[][] latencies = new long[config.peers][];
+        final StandInPeer[] peers = new StandInPeer[config.peers];
+        final CountDownLatch ready = new CountDownLatch(config.peers);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(config.peers);
+
+        for (int p = 0; p < config.peers; p++) {
+            final int peerIndex = p;
+            final StandInPeer peer = new StandInPeer(objectMapper, config.databases);
+            peers[p] = peer;
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        ready.countDown();
+                        start.await();
+                        final long allocatedBefore = currentThreadAllocatedBytes();
+                        // DevTools の接続と同じく、登録すると bootstrapNewPeer が addDatabase を送る
+                        final long bootstrapStart = System.nanoTime();
+                        realmPeerManager.addPeer(peer);
+                        if (!peer.bootstrapped.await(config.bootstrapTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                            bootstrapTimeouts.incrementAndGet();
+                        }
+                        bootstrapNanos[peerIndex] = System.nanoTime() - bootstrapStart;
+                        latencies[peerIndex] = runPeer(peerIndex, peer, config, table, materializer, workers,
+                                databaseIds, executedTasks, failures);
+                        final long allocatedAfter = currentThreadAllocatedBytes();
+                        if (allocatedBefore >= 0 && allocatedAfter >= 0) {
+                            peerAllocatedBytes.addAndGet(allocatedAfter - allocatedBefore);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        realmPeerManager.removePeer(peer);
+                        done.countDown();
+                    }
+                }
+            }, "peer-" + p);
+            thread.start();
+        }
+
+        ready.await();
+        final long startNanos = System.nanoTime();
+        start.countDown();
+        done.await();
+        final long wallNanos = System.nanoTime() - startNanos;
+
+        final Report report = new Report();
+        report.databases = config.databases;
+        report.probes = probe.probes.get();
+        report.bootstrapNanos = bootstrapNanos;
+        Arrays.sort(report.bootstrapNanos);
+        report.bootstrapTimeouts = bootstrapTimeouts.get();
+        report.wallNanos = wallNanos;
+        report.executedTasks = executedTasks.get();
+        report.failures = failures.get();
+        int count = 0;
+        for (long[] peerLatencies : latencies) {
+            count += peerLatencies == null ? 0 : peerLatencies.length;
+        }
+        report.latencyNanos = new long[count];
+        int position = 0;
+        for (long[] peerLatencies : latencies) {
+            if (peerLatencies != null) {
+                System.arraycopy(peerLatencies, 0, report.latencyNanos, position, peerLatencies.length);
+                position += peerLatencies.length;
+            }
+        }
+        Arrays.sort(report.latencyNanos);
+        report.requests = report.latencyNanos.length;
+        for (StandInPeer peer : peers) {
+            report.sentMessages += peer.messages.get();
+            report.sentBytes += peer.bytes.get();
+        }
+        if (isAllocationMeasurable()) {
+            report.peerAllocatedBytes = peerAllocatedBytes.get();
+            // ワーカースレッドは起動してからの合計(アイドルで終了したワーカーの分は含まない)
+            long workerBytes = 0;
+            for (String databaseId : databaseIds) {
+                workerBytes += workers.execute(databaseId, null, new RealmWorker.Task<Long>() {
+                    @Override
+                    public Long run(RealmWorker worker) {
+                        return currentThreadAllocatedBytes();
+                    }
+                });
+            }
+            report.workerAllocatedBytes = workerBytes;
+        }
+        return report;
+    }
+
+    private static long[] runPeer(int peerIndex,
+            StandInPeer peer,
+            Config config,
+            final FakeTable table,
+            final RowMaterializer materializer,
+            RealmWorker.Pool workers,
+            List<String> databaseIds,
+            final AtomicLong executedTasks,
+            AtomicLong failures) {
+        final Random random = new Random(peerIndex);
+        final String databaseId = databaseIds.get(peerIndex % databaseIds.size());
+        final long[] latencies = new long[config.requestsPerPeer];
+        final long limit = config.limit;
+        int nextPage = 0;
+        for (int i = 0; i < config.requestsPerPeer; i++) {
+            final int dice = random.nextInt(100);
+            final String query;
+            if (dice < 50) {
+                // ページを順番に読む
+                final long offset = (long) nextPage * PAGE_SIZE % table.size;
+                nextPage++;
+                query = "SELECT rowid, * FROM \"" + TABLE_NAME + "\" LIMIT " + PAGE_SIZE + " OFFSET " + offset;
+            } else if (dice < 70) {
+                query = SELECT_SHAPE;
+            } else if (dice < 85) {
+                query = "SELECT rowid, * FROM \"" + TABLE_NAME + "\" WHERE id = " + random.nextInt(table.size);
+            } else if (dice < 95) {
+                query = "SELECT rowid, * FROM \"" + TABLE_NAME + "\" TABLESAMPLE STRIDE (" + (50 + random.nextInt(100)) + ")";
+            } else {
+                query = TABLE_NAMES_QUERY;
+            }
+
+            final long requestStart = System.nanoTime();
+            // RealmPeerManager#executeSQL と同じ条件でまとめる
+            final String coalesceKey = QueryShape.isPaged(query) ? null : "executeSQL:" + query;
+            try {
+                final ExecuteSQLResult response = workers.execute(databaseId, coalesceKey, new RealmWorker.Task<ExecuteSQLResult>() {
+                    @Override
+                    public ExecuteSQLResult run(RealmWorker worker) {
+                        executedTasks.incrementAndGet();
+                        return execute(query, table, materializer, limit);
+                    }
+                });
+                peer.respond(i, response);
+            } catch (RuntimeException e) {
+                failures.incrementAndGet();
+            }
+            latencies[i] = System.nanoTime() - requestStart;
+        }
+        return latencies;
+    }
+
+    private static ExecuteSQLResult execute(String query, FakeTable table, RowMaterializer materializer, long limit) {
+        final ExecuteSQLResult response = new ExecuteSQLResult();
+        if (TABLE_NAMES_QUERY.equals(query)) {
+            response.columnNames = Collections.singletonList("name");
+            response.values = Collections.<Object>singletonList(TABLE_NAME);
+            return response;
+        }
+        final QueryShape shape = QueryShape.of(query);
+        final RowSelection rows;
+        if (PAGE_SHAPE.equals(shape.text)) {
+            rows = RowSelection.page(RowSelection.all(table.size),
+                    Long.parseLong(shape.parameters.get(1)), Long.parseLong(shape.parameters.get(0)), true);
+        } else if (SELECT_SHAPE.equals(shape.text)) {
+            rows = RowSelection.all(table.size);
+        } else if (WHERE_SHAPE.equals(shape.text)) {
+            final long id = Long.parseLong(shape.parameters.get(0));
+            rows = RowSelection.of(0 <= id && id < table.size ? new long[]{id} : new long[0]);
+        } else if (SAMPLE_SHAPE.equals(shape.text)) {
+            rows = RowSelection.strideSample(table.size, Integer.parseInt(shape.parameters.get(0)));
+        } else {
+            throw new IllegalArgumentException("unsupported query: " + query);
+        }
+        response.columnNames = table.columnNames;
+        response.values = materializer.flatten(rows, table, table.columnTypes, 0, limit, true, null);
+        return response;
+    }
+
+    private static boolean isAllocationMeasurable() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        return bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemoryEnabled();
+    }
+
+    /**
+     * @return 計測できない場合は {@code -1}。
+     */
+    private static long currentThreadAllocatedBytes() {
+        if (!isAllocationMeasurable()) {
+            return -1;
+        }
+        final com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * 値が行インデックスから決まるテーブルです。id カラムがプライマリキーで、行インデックスと同じ値です。
+     * <p>
+     * Realm の Row と同じく、読み出すたびに行のオブジェクトを作り、文字列とバイナリも読み出すたびに作ります。
+     */
+    static final class FakeTable implements RowMaterializer.RowReader {
+        final int size;
+        final List<String> columnNames = Collections.unmodifiableList(Arrays.asList(
+                "<pk>", "id", "name", "note", "score", "active", "created", "data", "owner", "tags"));
+        final StethoRealmFieldType[] columnTypes = {
+                StethoRealmFieldType.INTEGER,
+                StethoRealmFieldType.STRING,
+                StethoRealmFieldType.STRING,
+                StethoRealmFieldType.DOUBLE,
+                StethoRealmFieldType.BOOLEAN,
+                StethoRealmFieldType.DATE,
+                StethoRealmFieldType.BINARY,
+                StethoRealmFieldType.OBJECT,
+                StethoRealmFieldType.LIST,
+        };
+
+        FakeTable(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public RowAccessor read(long rowIndex) {
+            return new FakeRow(this, rowIndex);
+        }
+    }
+
+    private static final class FakeRow implements RowAccessor {
+        private final FakeTable table;
+        private final long index;
+
+        FakeRow(FakeTable table, long index) {
+            this.table = table;
+            this.index = index;
+        }
+
+        @Override
+        public long getIndex() {
+            return index;
+        }
+
+        @Override
+        public StethoRealmFieldType getColumnType(long columnIndex) {
+            return table.columnTypes[(int) columnIndex];
+        }
+
+        @Override
+        public boolean isNull(long columnIndex) {
+            // note は7行に1行 null
+            return columnIndex == 2 && index % 7 == 0;
+        }
+
+        @Override
+        public boolean isNullLink(long columnIndex) {
+            return index % 5 == 0;
+        }
+
+        @Override
+        public long getLong(long columnIndex) {
+            return index;
+        }
+
+        @Override
+        public boolean getBoolean(long columnIndex) {
+            return index % 2 == 0;
+        }
+
+        @Override
+        public float getFloat(long columnIndex) {
+            return index / 4f;
+        }
+
+        @Override
+        public double getDouble(long columnIndex) {
+            return index % 97 == 0 ? Double.NaN : index / 3.0;
+        }
+
+        @Override
+        public Date getDate(long columnIndex) {
+            return new Date(1500000000000L + index * 60000L);
+        }
+
+        @Override
+        public String getString(long columnIndex) {
+            if (columnIndex == 1) {
+                return "name-" + index;
+            }
+            // 20行に1行は切り詰められる長さ
+            final int length = index % 20 == 0 ? 2000 : (int) (index % 64);
+            final char[] chars = new char[length];
+            Arrays.fill(chars, index % 3 == 0 ? 'あ' : 'a');
+            return new String(chars);
+        }
+
+        @Override
+        public byte[] getBinaryByteArray(long columnIndex) {
+            final byte[] bytes = new byte[index % 50 == 0 ? 4096 : (int) (index % 16)];
+            Arrays.fill(bytes, (byte) index);
+            return bytes;
+        }
+
+        @Override
+        public long getLink(long columnIndex) {
+            return (index + 1) % table.size;
+        }
+
+        @Override
+        public String getLinkListTargetName(long columnIndex) {
+            return TABLE_NAME;
+        }
+
+        @Override
+        public long[] getLinkListTargets(long columnIndex) {
+            final long[] targets = new long[(int) (index % 4)];
+            for (int i = 0; i < targets.length; i++) {
+                targets[i] = (index + i + 1) % table.size;
+            }
+            return targets;
+        }
+    }
+
+    /**
+     * 設定された時間だけ待って {@code PLAIN} を返します。呼ばれた回数を数えます。
+     */
+    private static final class FakeProbe implements DatabaseFileProber.Probe {
+        final AtomicLong probes = new AtomicLong();
+        private final long millis;
+
+        FakeProbe(long millis) {
+            this.millis = millis;
+        }
+
+        @Override
+        public DatabaseFileProber.Status probe(File file) {
+            probes.incrementAndGet();
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return DatabaseFileProber.Status.PLAIN;
+        }
+    }
+
+    /**
+     * Database.executeSQL の結果と同じ形です。
+     */
+    private static final class ExecuteSQLResult implements JsonRpcResult {
+        @JsonProperty
+        public List<String> columnNames;
+
+        @JsonProperty
+        public List<Object> values;
+    }
+
+    /**
+     * WebSocket の代わりに、送られたメッセージの数とバイト数を数えるだけのセッションを使うピアです。
+     * <p>
+     * メッセージは実際の {@link JsonRpcPeer#invokeMethod} と {@link ObjectMapper} で JSON にします。
+     * 切断の通知は android.database.Observable を使うので、登録だけを無視します。
+     */
+    static final class StandInPeer extends JsonRpcPeer {
+        private static final String ADD_DATABASE_METHOD = "\"Database.addDatabase\"";
+
+        final AtomicLong messages = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        /**
+         * データベースの数だけ {@code Database.addDatabase} が届くと開きます。
+         */
+        final CountDownLatch bootstrapped;
+
+        StandInPeer(ObjectMapper objectMapper, int databases) {
+            this(objectMapper, new CountingSession(), databases);
+        }
+
+        private StandInPeer(ObjectMapper objectMapper, CountingSession session, int databases) {
+            super(objectMapper, session);
+            this.bootstrapped = new CountDownLatch(databases);
+            session.peer = this;
+        }
+
+        @Override
+        public void registerDisconnectReceiver(DisconnectReceiver callback) {
+        }
+
+        @Override
+        public void unregisterDisconnectReceiver(DisconnectReceiver callback) {
+        }
+
+        void respond(long id, JsonRpcResult result) {
+            final JSONObject json = getObjectMapper().convertValue(result, JSONObject.class);
+            getWebSocket().sendText("{\"id\":" + id + ",\"result\":" + json + "}");
+        }
+
+        private void onSent(String payload) {
+            messages.incrementAndGet();
+            bytes.addAndGet(payload.length());
+            if (payload.contains(ADD_DATABASE_METHOD)) {
+                bootstrapped.countDown();
+            }
+        }
+    }
+
+    private static final class CountingSession implements SimpleSession {
+        volatile StandInPeer peer;
+
+        @Override
+        public void sendText(String payload) {
+            peer.onSent(payload);
+        }
+
+        @Override
+        public void sendBinary(byte[] payload) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close(int closeReason, String reasonPhrase) {
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+    }
+}
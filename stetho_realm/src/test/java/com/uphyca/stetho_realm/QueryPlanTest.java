@@ -0,0 +1,86 @@
+package com.uphyca.stetho_realm;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class QueryPlanTest {
+
+    @Test
+    public void unwrapsExplain() {
+        assertEquals("SELECT rowid, * FROM \"Person\"", QueryPlan.unwrapExplain("EXPLAIN SELECT rowid, * FROM \"Person\""));
+        assertEquals("SELECT 1", QueryPlan.unwrapExplain("  explain\tSELECT 1  "));
+        assertEquals("SELECT\n1", QueryPlan.unwrapExplain("Explain \nSELECT\n1"));
+    }
+
+    @Test
+    public void returnsNullWithoutExplain() {
+        assertNull(QueryPlan.unwrapExplain("SELECT rowid, * FROM \"Person\""));
+        assertNull(QueryPlan.unwrapExplain("EXPLAIN"));
+        assertNull(QueryPlan.unwrapExplain("EXPLAINSELECT 1"));
+    }
+
+    @Test
+    public void listsPropertiesAndValues() {
+        final QueryPlan plan = new QueryPlan("EXPLAIN SELECT rowid, * FROM \"Person\" WHERE id = 1");
+        plan.shape = "SELECT rowid, * FROM \"Person\" WHERE id = ?";
+        plan.compiledQueryCached = true;
+        plan.tableName = "class_Person";
+        plan.columns.addAll(Arrays.asList("id", "name"));
+        plan.access = "PRIMARY KEY LOOKUP on id";
+        plan.primaryKey = "id";
+        plan.primaryKeyUsed = true;
+        plan.estimatedRows = 1;
+        plan.actualRows = 1;
+        plan.openNanos = 1500000;
+        plan.queryNanos = 250000;
+        plan.materializeNanos = 1000;
+        plan.serializeNanos = 2000;
+        plan.resultBytes = 42;
+        plan.serializedBytes = 40;
+
+        final Map<Object, Object> properties = toMap(plan.toValues());
+
+        assertEquals(Arrays.asList("property", "value"), plan.getColumnNames());
+        assertEquals("cached", properties.get("compiled query"));
+        assertEquals("class_Person", properties.get("table"));
+        assertEquals("id, name", properties.get("columns"));
+        assertEquals("PRIMARY KEY LOOKUP on id", properties.get("access"));
+        assertEquals("id (used)", properties.get("primary key"));
+        assertEquals("not used", properties.get("search index"));
+        assertEquals(1L, properties.get("actual rows"));
+        assertEquals("1.500", properties.get("open ms"));
+        assertEquals("0.250", properties.get("query ms"));
+        assertEquals("0.001", properties.get("materialize ms"));
+        assertEquals("0.002", properties.get("serialize ms"));
+        assertEquals("1.753", properties.get("total ms"));
+        assertEquals(42L, properties.get("estimated result bytes"));
+        assertEquals(40L, properties.get("result bytes"));
+    }
+
+    @Test
+    public void fillsMissingValues() {
+        final Map<Object, Object> properties = toMap(new QueryPlan("EXPLAIN SELECT 1").toValues());
+
+        assertEquals("-", properties.get("shape"));
+        assertEquals("compiled", properties.get("compiled query"));
+        assertEquals("-", properties.get("table"));
+        assertEquals(QueryPlan.ACCESS_FULL_SCAN, properties.get("access"));
+        assertEquals("none", properties.get("primary key"));
+    }
+
+    private static Map<Object, Object> toMap(List<Object> values) {
+        assertEquals(0, values.size() % 2);
+        final Map<Object, Object> map = new LinkedHashMap<>();
+        for (int i = 0; i < values.size(); i += 2) {
+            map.put(values.get(i), values.get(i + 1));
+        }
+        return map;
+    }
+}
@@ -0,0 +1,91 @@
+package com.uphyca.stetho_realm;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QueryShapeTest {
+
+    @Test
+    public void keepsQueryWithoutLiterals() {
+        final QueryShape shape = QueryShape.of("SELECT rowid, * FROM \"Person\"");
+        assertEquals("SELECT rowid, * FROM \"Person\"", shape.text);
+        assertEquals(Collections.emptyList(), shape.parameters);
+    }
+
+    @Test
+    public void replacesStringLiterals() {
+        final QueryShape shape = QueryShape.of("SELECT rowid, * FROM \"Person\" WHERE name = 'it''s'");
+        assertEquals("SELECT rowid, * FROM \"Person\" WHERE name = ?", shape.text);
+        assertEquals(Collections.singletonList("'it''s'"), shape.parameters);
+    }
+
+    @Test
+    public void keepsUnclosedStringLiteral() {
+        final QueryShape shape = QueryShape.of("SELECT rowid, * FROM \"Person\" WHERE name = 'abc");
+        assertEquals("SELECT rowid, * FROM \"Person\" WHERE name = 'abc", shape.text);
+        assertEquals(Collections.emptyList(), shape.parameters);
+    }
+
+    @Test
+    public void replacesNumbers() {
+        final QueryShape shape = QueryShape.of("SELECT rowid, * FROM \"Person\" LIMIT 10 OFFSET 20");
+        assertEquals("SELECT rowid, * FROM \"Person\" LIMIT ? OFFSET ?", shape.text);
+        assertEquals(Arrays.asList("10", "20"), shape.parameters);
+
+        assertEquals(Collections.singletonList("-5"), QueryShape.of("WHERE age = -5").parameters);
+        assertEquals(Collections.singletonList("+1.25"), QueryShape.of("WHERE score = +1.25").parameters);
+        assertEquals(Collections.singletonList("1.5e-3"), QueryShape.of("WHERE score = 1.5e-3").parameters);
+        assertEquals("TABLESAMPLE (?)", QueryShape.of("TABLESAMPLE (100)").text);
+    }
+
+    @Test
+    public void keepsDigitsInIdentifiers() {
+        final QueryShape shape = QueryShape.of("SELECT rowid, * FROM \"Table2\" WHERE column1 = 1abc");
+        assertEquals("SELECT rowid, * FROM \"Table2\" WHERE column1 = 1abc", shape.text);
+        assertEquals(Collections.emptyList(), shape.parameters);
+        assertEquals("WHERE x = 1e", QueryShape.of("WHERE x = 1e").text);
+    }
+
+    @Test
+    public void keepsQuotedIdentifiers() {
+        final QueryShape shape = QueryShape.of("SELECT rowid, * FROM \"class 1 'a'\" WHERE \"age 2\" = 3");
+        assertEquals("SELECT rowid, * FROM \"class 1 'a'\" WHERE \"age 2\" = ?", shape.text);
+        assertEquals(Collections.singletonList("3"), shape.parameters);
+    }
+
+    @Test
+    public void replacesKeywordLiteralsOnlyAfterEquals() {
+        assertEquals("WHERE active = ?", QueryShape.of("WHERE active = true").text);
+        assertEquals(Collections.singletonList("NULL"), QueryShape.of("WHERE note=NULL").parameters);
+        assertEquals("SELECT TRUE", QueryShape.of("SELECT TRUE").text);
+        assertEquals("WHERE name = nullable", QueryShape.of("WHERE name = nullable").text);
+    }
+
+    @Test
+    public void collapsesWhitespace() {
+        final QueryShape shape = QueryShape.of("  SELECT\trowid,  *   FROM \"Person\"\t\tLIMIT  5 ");
+        assertEquals("SELECT rowid, * FROM \"Person\" LIMIT ?", shape.text);
+        assertEquals(Collections.singletonList("5"), shape.parameters);
+    }
+
+    @Test
+    public void givesSameShapeForDifferentValues() {
+        assertEquals(QueryShape.of("SELECT rowid, * FROM \"Person\" WHERE id = 1").text,
+                QueryShape.of("SELECT rowid, * FROM \"Person\" WHERE id = 12345").text);
+        assertEquals(QueryShape.of("SELECT rowid, * FROM \"Person\" WHERE name = 'a'").text,
+                QueryShape.of("SELECT rowid, * FROM \"Person\" WHERE name = 'bcd'").text);
+    }
+
+    @Test
+    public void detectsPagedQueries() {
+        assertTrue(QueryShape.isPaged("SELECT rowid, * FROM \"Person\" LIMIT 10"));
+        assertTrue(QueryShape.isPaged("select rowid, * from \"Person\" limit 10 offset 20"));
+        assertFalse(QueryShape.isPaged("SELECT rowid, * FROM \"Person\""));
+    }
+}
@@ -0,0 +1,293 @@
+package com.uphyca.stetho_realm;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RealmFileArrayTest {
+
+    private static final int INNER_BPTREE_NODE = 0x80;
+    private static final int HAS_REFS = 0x40;
+    private static final int CONTEXT = 0x20;
+    private static final int MULTIPLY = 0x08;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+    private final List<Long> refs = new ArrayList<>();
+    private RealmFile file;
+
+    @Before
+    public void writeHeader() {
+        // トップ ref なし、ファイルフォーマット 9
+        final byte[] header = new byte[24];
+        header[16] = 'T';
+        header[17] = '-';
+        header[18] = 'D';
+        header[19] = 'B';
+        header[20] = 9;
+        header[21] = 9;
+        content.write(header, 0, header.length);
+    }
+
+    @After
+    public void closeFile() throws IOException {
+        if (file != null) {
+            file.close();
+        }
+    }
+
+    @Test
+    public void decodesHeaderFlagsAndSize() throws IOException {
+        addArray(INNER_BPTREE_NODE | HAS_REFS | CONTEXT | 4, 1, bytes(0));
+        addArray(MULTIPLY | 3, 0x01_02_03, new byte[0]);
+        open();
+
+        final RealmFileArray flagged = array(0);
+        assertTrue(flagged.innerNode);
+        assertTrue(flagged.hasRefs);
+        assertTrue(flagged.context);
+        assertFalse(flagged.multiply);
+        assertEquals(8, flagged.width);
+        assertEquals(1, flagged.size);
+
+        final RealmFileArray plain = array(1);
+        assertFalse(plain.innerNode);
+        assertFalse(plain.hasRefs);
+        assertFalse(plain.context);
+        assertTrue(plain.multiply);
+        assertEquals(4, plain.width);
+        assertEquals(0x010203, plain.size);
+    }
+
+    @Test
+    public void decodesAllWidths() throws IOException {
+        addArray(0, 3, new byte[0]);
+        addArray(1, 10, bytes(0b10110101, 0b00000010));
+        addArray(2, 5, bytes(0b11100100, 0b00000011));
+        addArray(3, 3, bytes(0x21, 0x0F));
+        addArray(4, 3, bytes(0x7F, 0x80, 0xFF));
+        addArray(5, 2, bytes(0x34, 0x12, 0xFE, 0xFF));
+        addArray(6, 2, bytes(0x78, 0x56, 0x34, 0x12, 0x00, 0x00, 0x00, 0x80));
+        addArray(7, 1, bytes(0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF));
+        open();
+
+        final RealmFileArray zero = array(0);
+        assertEquals(0, zero.width);
+        assertEquals(0, zero.get(2));
+
+        final RealmFileArray bits = array(1);
+        assertEquals(1, bits.width);
+        final long[] expectedBits = {1, 0, 1, 0, 1, 1, 0, 1, 0, 1};
+        for (int i = 0; i < expectedBits.length; i++) {
+            assertEquals("bit " + i, expectedBits[i], bits.get(i));
+        }
+
+        final RealmFileArray twoBits = array(2);
+        assertEquals(2, twoBits.width);
+        final long[] expectedTwoBits = {0, 1, 2, 3, 3};
+        for (int i = 0; i < expectedTwoBits.length; i++) {
+            assertEquals("element " + i, expectedTwoBits[i], twoBits.get(i));
+        }
+
+        final RealmFileArray nibbles = array(3);
+        assertEquals(4, nibbles.width);
+        assertEquals(1, nibbles.get(0));
+        assertEquals(2, nibbles.get(1));
+        assertEquals(15, nibbles.get(2));
+
+        final RealmFileArray signedBytes = array(4);
+        assertEquals(8, signedBytes.width);
+        assertEquals(127, signedBytes.get(0));
+        assertEquals(-128, signedBytes.get(1));
+        assertEquals(-1, signedBytes.get(2));
+
+        final RealmFileArray shorts = array(5);
+        assertEquals(16, shorts.width);
+        assertEquals(0x1234, shorts.get(0));
+        assertEquals(-2, shorts.get(1));
+
+        final RealmFileArray ints = array(6);
+        assertEquals(32, ints.width);
+        assertEquals(0x12345678, ints.get(0));
+        assertEquals(Integer.MIN_VALUE, ints.get(1));
+
+        final RealmFileArray longs = array(7);
+        assertEquals(64, longs.width);
+        assertEquals(-1L, longs.get(0));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void rejectsIndexOutOfRange() throws IOException {
+        addArray(4, 2, bytes(1, 2));
+        open();
+
+        array(0).get(2);
+    }
+
+    @Test
+    public void decodesShortStringsAndNull() throws IOException {
+        final Charset utf8 = Charset.forName("UTF-8");
+        final byte[] hello = "héllo".getBytes(utf8);
+        final byte[] slots = new byte[16];
+        // 幅 8: 最後のバイトが 幅 - 1 - 長さ、幅と等しければ null
+        System.arraycopy(hello, 0, slots, 0, hello.length);
+        slots[7] = (byte) (8 - 1 - hello.length);
+        slots[15] = 8;
+        addArray(MULTIPLY | 4, 2, slots);
+        open();
+
+        final RealmFileArray strings = array(0);
+        assertEquals("héllo", strings.getShortString(0, true));
+        assertNull(strings.getShortString(1, true));
+        assertEquals("", strings.getShortString(1, false));
+    }
+
+    @Test
+    public void decodesFloatsAndNullFloat() throws IOException {
+        final int nullBits = 0x7fc000aa;
+        addArray(MULTIPLY | 6, 2, concat(le(Float.floatToIntBits(1.5f), 4), le(nullBits, 4)));
+        open();
+
+        final RealmFileArray floats = array(0);
+        assertEquals(1.5f, floats.getFloat(0), 0f);
+        assertFalse(floats.isNullFloat(0));
+        assertTrue(floats.isNullFloat(1));
+    }
+
+    @Test
+    public void findsLeavesThroughInnerNode() throws IOException {
+        // 葉2つ(3要素, 2要素)と、最後の子以外は3要素ずつであることを示すタグ付きの内部ノード
+        addArray(4, 3, bytes(10, 11, 12));
+        addArray(4, 2, bytes(13, 14));
+        open();
+        final long firstLeaf = refs.get(0);
+        final long secondLeaf = refs.get(1);
+        reopenWith(INNER_BPTREE_NODE | HAS_REFS | 7, 4,
+                concat(le(3 << 1 | 1, 8), le(firstLeaf, 8), le(secondLeaf, 8), le(5 << 1 | 1, 8)));
+
+        final RealmFileArray root = array(2);
+        assertEquals(5, root.treeSize(RealmFileArray.LeafSize.PLAIN));
+        for (int index = 0; index < 5; index++) {
+            final RealmFileArray.Leaf leaf = root.findLeaf(index);
+            assertEquals(10 + index, leaf.array.get(leaf.index));
+        }
+        assertEquals(secondLeaf, root.findLeaf(4).array.ref);
+    }
+
+    @Test
+    public void readsAcrossPageBoundary() throws IOException {
+        // 各バイトの値は位置の下位8ビット
+        final byte[] pattern = new byte[2 * RealmFile.PAGE_SIZE];
+        for (int i = 0; i < pattern.length; i++) {
+            pattern[i] = (byte) (content.size() + i);
+        }
+        content.write(pattern, 0, pattern.length);
+        open();
+
+        final long position = RealmFile.PAGE_SIZE - 3;
+        final byte[] expected = new byte[6];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = (byte) (position + i);
+        }
+        assertArrayEquals(expected, file.getBytes(position, expected.length));
+        assertEquals(0x0403020100fffefdL, file.getLong(position));
+        assertEquals((short) 0x00ff, file.getShort(RealmFile.PAGE_SIZE - 1));
+    }
+
+    @Test
+    public void readsSizesAndVersionsFromTopArray() throws IOException {
+        addArray(4, 3, bytes(0, 0, 0)); // 空き領域の位置
+        addArray(4, 3, bytes(16, 32, 8)); // 長さ
+        addArray(4, 3, bytes(0, 5, 7)); // 解放したバージョン。0 は再利用できる
+        final long logicalFileSize = 4096;
+        addArray(HAS_REFS | 7, 7, concat(le(0, 8), le(0, 8), le(logicalFileSize << 1 | 1, 8),
+                le(refs.get(0), 8), le(refs.get(1), 8), le(refs.get(2), 8), le(10 << 1 | 1, 8)));
+        open(refs.get(3));
+
+        assertEquals(logicalFileSize, file.getLogicalFileSize());
+        assertEquals(56, file.getFreeSpaceSize());
+        // バージョン 5 から 10 まで
+        assertEquals(6, file.getVersions());
+        assertEquals(0, file.getTableNames().size());
+    }
+
+    private void addArray(int flags, int size, byte[] data) {
+        refs.add((long) content.size());
+        final byte[] header = {0, 0, 0, 0, (byte) flags, (byte) (size >> 16), (byte) (size >> 8), (byte) size};
+        content.write(header, 0, header.length);
+        content.write(data, 0, data.length);
+        // ref は8バイト境界
+        while (content.size() % 8 != 0) {
+            content.write(0);
+        }
+    }
+
+    private void reopenWith(int flags, int size, byte[] data) throws IOException {
+        file.close();
+        addArray(flags, size, data);
+        open();
+    }
+
+    private void open() throws IOException {
+        open(0);
+    }
+
+    private void open(long topRef) throws IOException {
+        final byte[] bytes = content.toByteArray();
+        System.arraycopy(le(topRef, 8), 0, bytes, 0, 8);
+        final File realmFile = temporaryFolder.newFile();
+        final FileOutputStream out = new FileOutputStream(realmFile);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+        file = RealmFile.open(realmFile);
+    }
+
+    private RealmFileArray array(int index) {
+        return RealmFileArray.at(file, refs.get(index));
+    }
+
+    private static byte[] bytes(int... values) {
+        final byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    private static byte[] le(long value, int size) {
+        final byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) (value >> (8 * i));
+        }
+        return bytes;
+    }
+
+    private static byte[] concat(byte[]... arrays) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] array : arrays) {
+            out.write(array, 0, array.length);
+        }
+        return out.toByteArray();
+    }
+}
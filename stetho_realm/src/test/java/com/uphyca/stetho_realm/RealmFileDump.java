@@ -0,0 +1,188 @@
+package com.uphyca.stetho_realm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+
+/**
+ * 端末から取り出した Realm のファイルを、Android やネイティブライブラリなしで JVM 上で表示します。
+ * <p>
+ * ライブラリには含めず、テストのソースセットから Gradle のタスクで実行します。
+ * <pre>
+ * ./gradlew -q :stetho_realm:realmFileDump -PdumpArgs="default.realm"
+ * ./gradlew -q :stetho_realm:realmFileDump -PdumpArgs="default.realm class_Person [limit [offset]]"
+ * </pre>
+ * ファイルだけを指定するとテーブルの一覧とカラムを、テーブル名を指定するとその行をタブ区切りで表示します。
+ * 行は Stetho と同じ {@link RowMaterializer} と {@link ValueFormatter} で、既定の設定のまま表示します。
+ */
+public final class RealmFileDump {
+
+    private static final long BATCH_SIZE = 1000;
+
+    private RealmFileDump() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 4) {
+            System.err.println("usage: RealmFileDump <file> [<table> [<limit> [<offset>]]]");
+            System.exit(2);
+            return;
+        }
+        final RealmFile file;
+        try {
+            file = RealmFile.open(new File(args[0]));
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+            return;
+        }
+        try {
+            final PrintStream out = System.out;
+            if (args.length == 1) {
+                printTables(out, file);
+                return;
+            }
+            if (!file.hasTable(args[1])) {
+                System.err.println("no such table: " + args[1]);
+                System.exit(1);
+                return;
+            }
+            final long limit = args.length > 2 ? Long.parseLong(args[2]) : Long.MAX_VALUE;
+            final long offset = args.length > 3 ? Long.parseLong(args[3]) : 0;
+            final ValueFormatter formatter = new ValueFormatter(RealmInspectorModulesProvider.DEFAULT_STRING_PREFIX_LENGTH, false, false);
+            printRows(out, formatter, file.getTable(args[1]), limit, offset);
+        } finally {
+            file.close();
+        }
+    }
+
+    private static void printTables(PrintStream out, RealmFile file) {
+        out.println(file.getName() + " (file format " + file.getFileFormatVersion() + ")");
+        for (String name : file.getTableNames()) {
+            final RealmFileTable table = file.getTable(name);
+            out.println(name + " (" + table.size() + " rows)");
+            for (long column = 0; column < table.getColumnCount(); column++) {
+                final StringBuilder sb = new StringBuilder("  ");
+                sb.append(table.getColumnName(column)).append(' ').append(table.getColumnType(column));
+                final Database.StethoRealmFieldType type = table.getColumnType(column);
+                if (type == Database.StethoRealmFieldType.OBJECT || type == Database.StethoRealmFieldType.LIST) {
+                    sb.append(" -> ").append(table.getLinkTarget(column).getName());
+                }
+                if (table.getPrimaryKey() == column) {
+                    sb.append(" primary key");
+                }
+                if (table.hasSearchIndex(column)) {
+                    sb.append(" indexed");
+                }
+                if (table.isColumnNullable(column)) {
+                    sb.append(" nullable");
+                }
+                out.println(sb);
+            }
+        }
+    }
+
+    private static void printRows(PrintStream out, ValueFormatter formatter, final RealmFileTable table, long limit, long offset) {
+        final int numColumns = (int) table.getColumnCount();
+        final Database.StethoRealmFieldType[] columnTypes = new Database.StethoRealmFieldType[numColumns];
+        final long primaryKeyColumn = table.getPrimaryKey();
+        final StringBuilder sb = new StringBuilder(primaryKeyColumn >= 0 ? "<pk>" : "<index>");
+        for (int column = 0; column < numColumns; column++) {
+            columnTypes[column] = table.getColumnType(column);
+            sb.append('\t').append(escape(table.getColumnName(column)));
+        }
+        out.println(sb);
+
+        // バイト数では切り詰めず、BATCH_SIZE 行ずつ読んで表示する
+        final RowMaterializer materializer = new RowMaterializer(formatter, Long.MAX_VALUE, true);
+        final RowMaterializer.RowReader reader = new RowMaterializer.RowReader() {
+            @Override
+            public RowAccessor read(long rowIndex) {
+                return table.getCheckedRow(rowIndex);
+            }
+        };
+        final RowSelection rows = RowSelection.page(RowSelection.all(table.size()), Math.max(offset, 0), limit, true);
+        for (long position = 0; position < rows.size(); position += BATCH_SIZE) {
+            final RowSelection batch = RowSelection.page(rows, position, BATCH_SIZE, true);
+            final List<Object> values = materializer.flatten(batch, reader, columnTypes, primaryKeyColumn,
+                    batch.size(), true, null);
+            for (int start = 0; start < values.size(); start += numColumns + 1) {
+                sb.setLength(0);
+                for (int column = 0; column <= numColumns; column++) {
+                    if (column != 0) {
+                        sb.append('\t');
+                    }
+                    sb.append(toText(values.get(start + column)));
+                }
+                out.println(sb);
+            }
+        }
+    }
+
+    /**
+     * {@link ValueFormatter} が返す値を、Stetho が JSON で送るのと同じ表記の文字列にします。
+     */
+    private static String toText(Object value) {
+        if (value instanceof String) {
+            return escape((String) value);
+        }
+        if (value instanceof byte[]) {
+            final byte[] bytes = (byte[]) value;
+            final StringBuilder sb = new StringBuilder("[");
+            for (int i = 0; i < bytes.length; i++) {
+                if (i != 0) {
+                    sb.append(',');
+                }
+                sb.append(bytes[i]);
+            }
+            return sb.append(']').toString();
+        }
+        if (value instanceof List) {
+            // 切り詰めたバイナリ
+            final StringBuilder sb = new StringBuilder("[");
+            final List<?> elements = (List<?>) value;
+            for (int i = 0; i < elements.size(); i++) {
+                if (i != 0) {
+                    sb.append(',');
+                }
+                final Object element = elements.get(i);
+                if (element instanceof String) {
+                    sb.append('"').append(escape((String) element)).append('"');
+                } else {
+                    sb.append(element);
+                }
+            }
+            return sb.append(']').toString();
+        }
+        return String.valueOf(value);
+    }
+
+    /**
+     * タブ区切りが崩れないよう、タブ、改行、バックスラッシュをエスケープします。
+     */
+    private static String escape(String value) {
+        final StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                default:
+                    sb.append(c);
+                    break;
+            }
+        }
+        return sb.toString();
+    }
+}
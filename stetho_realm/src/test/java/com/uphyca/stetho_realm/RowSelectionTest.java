@@ -0,0 +1,102 @@
+package com.uphyca.stetho_realm;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RowSelectionTest {
+
+    @Test
+    public void selectsAllRows() {
+        assertArrayEquals(new long[]{0, 1, 2, 3}, toArray(RowSelection.all(4)));
+        assertEquals(0, RowSelection.all(0).size());
+    }
+
+    @Test
+    public void selectsGivenRows() {
+        assertArrayEquals(new long[]{7, 3, 5}, toArray(RowSelection.of(new long[]{7, 3, 5})));
+    }
+
+    @Test
+    public void pagesInAscendingOrder() {
+        final RowSelection rows = RowSelection.all(10);
+        assertArrayEquals(new long[]{3, 4, 5, 6}, toArray(RowSelection.page(rows, 3, 4, true)));
+        assertArrayEquals(new long[]{8, 9}, toArray(RowSelection.page(rows, 8, 4, true)));
+        assertEquals(0, RowSelection.page(rows, 10, 4, true).size());
+        assertEquals(0, RowSelection.page(rows, 20, 4, true).size());
+        assertArrayEquals(new long[]{8, 9}, toArray(RowSelection.page(rows, 8, Long.MAX_VALUE, true)));
+    }
+
+    @Test
+    public void pagesInDescendingOrder() {
+        // 表示順は 9, 8, 7, ... なので、2行飛ばした3行は 7, 6, 5。末尾から読めば表示順になる
+        final RowSelection rows = RowSelection.all(10);
+        assertArrayEquals(new long[]{5, 6, 7}, toArray(RowSelection.page(rows, 2, 3, false)));
+        assertArrayEquals(new long[]{0, 1}, toArray(RowSelection.page(rows, 8, 4, false)));
+        assertEquals(0, RowSelection.page(rows, 20, 4, false).size());
+    }
+
+    @Test
+    public void pagesSelectedRows() {
+        final RowSelection rows = RowSelection.of(new long[]{10, 20, 30, 40});
+        assertArrayEquals(new long[]{20, 30}, toArray(RowSelection.page(rows, 1, 2, true)));
+        assertArrayEquals(new long[]{20, 30}, toArray(RowSelection.page(rows, 1, 2, false)));
+    }
+
+    @Test
+    public void samplesUniformlyWithoutDuplicates() {
+        final RowSelection sample = RowSelection.uniformSample(1000, 100, new Random(1));
+        assertEquals(100, sample.size());
+        assertStrictlyIncreasingWithin(sample, 1000);
+    }
+
+    @Test
+    public void samplesUniformlyFromHugeTable() {
+        final long tableSize = 5L * Integer.MAX_VALUE;
+        final RowSelection sample = RowSelection.uniformSample(tableSize, 50, new Random(2));
+        assertEquals(50, sample.size());
+        assertStrictlyIncreasingWithin(sample, tableSize);
+    }
+
+    @Test
+    public void returnsAllRowsWhenSampleIsLargerThanTable() {
+        assertArrayEquals(new long[]{0, 1, 2}, toArray(RowSelection.uniformSample(3, 5, new Random(3))));
+        assertArrayEquals(new long[]{0, 1, 2}, toArray(RowSelection.strideSample(3, 3)));
+    }
+
+    @Test
+    public void samplesAtEqualIntervals() {
+        assertArrayEquals(new long[]{0, 10, 20, 30, 40, 50, 60, 70, 80, 90}, toArray(RowSelection.strideSample(100, 10)));
+        assertArrayEquals(new long[]{0, 3, 6}, toArray(RowSelection.strideSample(10, 3)));
+    }
+
+    @Test
+    public void samplesAtEqualIntervalsWithoutOverflow() {
+        final RowSelection sample = RowSelection.strideSample(Long.MAX_VALUE, 4);
+        assertEquals(4, sample.size());
+        assertEquals(0, sample.get(0));
+        assertEquals(Long.MAX_VALUE / 4 * 3 + Long.MAX_VALUE % 4 * 3 / 4, sample.get(3));
+        assertStrictlyIncreasingWithin(sample, Long.MAX_VALUE);
+    }
+
+    private static void assertStrictlyIncreasingWithin(RowSelection rows, long tableSize) {
+        long previous = -1;
+        for (long position = 0; position < rows.size(); position++) {
+            final long row = rows.get(position);
+            assertTrue("row " + row + " at " + position, previous < row && row < tableSize);
+            previous = row;
+        }
+    }
+
+    private static long[] toArray(RowSelection rows) {
+        final long[] array = new long[(int) rows.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = rows.get(i);
+        }
+        return array;
+    }
+}